@@ -0,0 +1,92 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec01.segregation.good.entity.User;
+import com.jmunoz.sec01.segregation.good.service.UserPersistenceService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Operaciones por lotes de 10.000 usuarios frente a una llamada por usuario.
+// Cada operación del benchmark es un lote completo.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchPersistenceBenchmark {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    private final UserPersistenceService service = new UserPersistenceService();
+
+    private final List<User> users = new ArrayList<>();
+
+    private final List<Long> ids = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        for (long id = 0; id < BATCH_SIZE; id++) {
+            User user = new User();
+            user.setId(id);
+            user.setName("user" + id);
+            users.add(user);
+            ids.add(id);
+        }
+        service.saveAll(users);
+    }
+
+    @Benchmark
+    public void saveOneByOne() {
+        for (User user : users) {
+            service.save(user);
+        }
+    }
+
+    @Benchmark
+    public void saveAll() {
+        service.saveAll(users);
+    }
+
+    @Benchmark
+    public List<User> findOneByOne() {
+        List<User> found = new ArrayList<>(BATCH_SIZE);
+        for (Long id : ids) {
+            found.add(service.findById(id));
+        }
+        return found;
+    }
+
+    @Benchmark
+    public List<User> findAllById() {
+        return service.findAllById(ids);
+    }
+
+    // Se borra y se vuelve a guardar el lote, para que cada borrado encuentre los usuarios
+    @Benchmark
+    public void deleteAndSaveOneByOne() {
+        for (User user : users) {
+            service.delete(user);
+        }
+        for (User user : users) {
+            service.save(user);
+        }
+    }
+
+    @Benchmark
+    public void deleteAllAndSaveAll() {
+        service.deleteAll(users);
+        service.saveAll(users);
+    }
+}
@@ -0,0 +1,119 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec01.openclosed.good.CallHistory;
+import com.jmunoz.sec01.openclosed.good.ISPSubscriber;
+import com.jmunoz.sec01.openclosed.good.InternetSessionHistory;
+import com.jmunoz.sec01.openclosed.good.PhoneSubscriber;
+import com.jmunoz.sec01.openclosed.good.UsageStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Ingesta de llamadas y cálculo de facturas de sec01.openclosed.good.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CallHistoryBenchmark {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    // Los ids de suscriptor se reparten entre subscribers para que varios threads no escriban siempre en el mismo.
+    @State(Scope.Benchmark)
+    public static class Ingest {
+
+        @Param({"100000"})
+        public int subscribers;
+
+        // Reloj compartido para que las llamadas lleguen en orden de begin, como en producción.
+        public final AtomicLong seconds = new AtomicLong();
+
+        // Empezamos cada iteración con un historial vacío, si no el heap crece sin límite.
+        @Setup(Level.Iteration)
+        public void setUp() {
+            CallHistory.setStore(UsageStore.inMemory());
+            seconds.set(0);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Billing {
+
+        @Param({"10", "1000"})
+        public int callsPerSubscriber;
+
+        public PhoneSubscriber phone;
+
+        public ISPSubscriber isp;
+
+        public LocalDateTime periodFrom;
+
+        public LocalDateTime periodTo;
+
+        // Cada combinación de parámetros usa un id nuevo, el historial es estático.
+        @Setup(Level.Trial)
+        public void setUp() {
+            long subscriberId = ThreadLocalRandom.current().nextLong(1L << 40, 1L << 50);
+            for (int i = 0; i < callsPerSubscriber; i++) {
+                CallHistory.addSession(subscriberId, START.plusMinutes(i), 60);
+                InternetSessionHistory.addSession(subscriberId, START.plusMinutes(i), 1024);
+            }
+            phone = new PhoneSubscriber();
+            phone.setSubscriberId(subscriberId);
+            phone.setBaseRate(5);
+            isp = new ISPSubscriber();
+            isp.setSubscriberId(subscriberId);
+            isp.setBaseRate(5);
+            isp.setFreeUsage(2048);
+            periodFrom = START.plusMinutes(callsPerSubscriber / 4);
+            periodTo = START.plusMinutes(callsPerSubscriber / 2);
+        }
+    }
+
+    // Caso normal: cada llamada empieza después de las anteriores y se añade al final del buffer en O(1).
+    @Benchmark
+    @Threads(4)
+    public void addSession(Ingest ingest) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CallHistory.addSession((long) random.nextInt(ingest.subscribers), START.plusSeconds(ingest.seconds.getAndIncrement()), 60);
+    }
+
+    // Peor caso: begins aleatorios, casi todas las llamadas llegan tarde y se desplazan a su sitio en O(n).
+    @Benchmark
+    @Threads(4)
+    public void addSessionOutOfOrder(Ingest ingest) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CallHistory.addSession((long) random.nextInt(ingest.subscribers), START.plusSeconds(random.nextInt(86_400)), 60);
+    }
+
+    @Benchmark
+    public double phoneCalculateBill(Billing billing) {
+        return billing.phone.calculateBill();
+    }
+
+    @Benchmark
+    public double ispCalculateBill(Billing billing) {
+        return billing.isp.calculateBill();
+    }
+
+    @Benchmark
+    public double phoneCalculateBillForPeriod(Billing billing) {
+        return billing.phone.calculateBill(billing.periodFrom, billing.periodTo);
+    }
+}
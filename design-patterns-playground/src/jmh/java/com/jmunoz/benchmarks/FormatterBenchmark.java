@@ -0,0 +1,86 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec01.di.good.BinaryFormatter;
+import com.jmunoz.sec01.di.good.BinaryMessageReader;
+import com.jmunoz.sec01.di.good.FormatException;
+import com.jmunoz.sec01.di.good.JSONFormatter;
+import com.jmunoz.sec01.di.good.Message;
+import com.jmunoz.sec01.di.good.TextFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Formateo de mensajes de sec01.di.good.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatterBenchmark {
+
+    private final Message message = new Message("This is a message again");
+
+    private final JSONFormatter jsonFormatter = new JSONFormatter();
+
+    private final TextFormatter textFormatter = new TextFormatter();
+
+    private final BinaryFormatter binaryFormatter = new BinaryFormatter();
+
+    // Buffer reutilizado entre invocaciones, como haría un transporte de mensajes
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    // Destinos que descartan lo escrito, así solo medimos el formateo
+    private final Writer writer = Writer.nullWriter();
+
+    private final OutputStream out = OutputStream.nullOutputStream();
+
+    @Benchmark
+    public String jsonFormat() throws FormatException {
+        return jsonFormatter.format(message);
+    }
+
+    @Benchmark
+    public void jsonFormatToWriter() throws IOException {
+        jsonFormatter.format(message, writer);
+    }
+
+    @Benchmark
+    public void jsonFormatToStream() throws IOException {
+        jsonFormatter.format(message, out);
+    }
+
+    @Benchmark
+    public void binaryFormatToStream() throws IOException {
+        binaryFormatter.format(message, out);
+    }
+
+    @Benchmark
+    public Message binaryRoundTrip() throws FormatException {
+        buffer.clear();
+        binaryFormatter.encode(message, buffer);
+        return BinaryMessageReader.decode(buffer.flip());
+    }
+
+    @Benchmark
+    public void textFormatToWriter() throws IOException {
+        textFormatter.format(message, writer);
+    }
+
+    @Benchmark
+    public String textFormat() {
+        return textFormatter.format(message);
+    }
+}
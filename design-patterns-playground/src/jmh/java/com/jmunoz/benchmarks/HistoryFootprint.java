@@ -0,0 +1,99 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec01.openclosed.good.CallHistory;
+import com.jmunoz.sec01.openclosed.good.UsageStore;
+
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Heap retenido por un historial de llamadas, comparando la representación original (LinkedList de objetos con
+// LocalDateTime y Long) con las vistas Call que devuelve CallHistory.getCurrentCalls() y con el almacén de
+// primitivos de CallHistory.
+// No es un benchmark JMH, mide memoria y no tiempo:
+//   mvn -Pbenchmarks compile exec:exec -Dbenchmark.main=com.jmunoz.benchmarks.HistoryFootprint -Dbenchmark.args=10000000
+// Para 100M registros hay que darle heap suficiente a la representación original (unos 15 GB).
+public class HistoryFootprint {
+
+    private static final int SUBSCRIBERS = 100_000;
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        System.out.printf("%,d records, %,d subscribers%n", records, SUBSCRIBERS);
+        long legacy = measure("legacy Call objects", records, () -> legacyHistory(records));
+        // Las vistas se miden con el historial ya lleno, así solo cuentan las listas de Call que devuelve.
+        CallHistory.setStore(UsageStore.inMemory());
+        for (int i = 0; i < records; i++) {
+            CallHistory.addSession((long) (i % SUBSCRIBERS), START.plusSeconds(i), 60);
+        }
+        long views = measure("Call views", records, HistoryFootprint::currentCalls);
+        CallHistory.setStore(UsageStore.inMemory());
+        long store = measure("primitive store", records, () -> primitiveStore(records));
+        System.out.printf("legacy / views: %.1fx, legacy / store: %.1fx%n",
+                (double) legacy / views, (double) legacy / store);
+    }
+
+    private static long measure(String name, int records, Supplier<Object> history) {
+        long before = usedHeap();
+        Object retained = history.get();
+        long after = usedHeap();
+        Reference.reachabilityFence(retained);
+        long bytes = after - before;
+        System.out.printf("%-22s %,15d bytes  %6.1f bytes/record%n", name, bytes, (double) bytes / records);
+        return bytes;
+    }
+
+    // Lo que guardaba CallHistory antes de usar arrays de primitivos.
+    private static Object legacyHistory(int records) {
+        Map<Long, List<LegacyCall>> calls = new HashMap<>();
+        for (int i = 0; i < records; i++) {
+            Long subscriberId = (long) (i % SUBSCRIBERS) + 1_000_000;
+            calls.computeIfAbsent(subscriberId, id -> new LinkedList<>())
+                    .add(new LegacyCall(subscriberId, START.plusSeconds(i), 60));
+        }
+        return calls;
+    }
+
+    private static Object currentCalls() {
+        List<List<CallHistory.Call>> calls = new ArrayList<>(SUBSCRIBERS);
+        for (long id = 0; id < SUBSCRIBERS; id++) {
+            calls.add(CallHistory.getCurrentCalls(id));
+        }
+        return calls;
+    }
+
+    private static Object primitiveStore(int records) {
+        UsageStore store = UsageStore.inMemory();
+        long begin = START.toEpochSecond(ZoneOffset.UTC) * 1_000_000;
+        for (int i = 0; i < records; i++) {
+            store.append(i % SUBSCRIBERS, begin + i * 1_000_000L, 60);
+        }
+        return store;
+    }
+
+    // Repite el GC hasta que el heap usado deja de bajar, con pocas pasadas quedaba basura de la medida anterior.
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long current = runtime.totalMemory() - runtime.freeMemory();
+            if (current >= used) {
+                return current;
+            }
+            used = current;
+        }
+        return used;
+    }
+
+    private record LegacyCall(Long subscriberId, LocalDateTime begin, long duration) {
+    }
+}
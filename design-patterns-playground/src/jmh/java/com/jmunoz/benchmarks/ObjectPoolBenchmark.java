@@ -0,0 +1,81 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec08.objectpool.ConcurrentObjectPool;
+import com.jmunoz.sec08.objectpool.ObjectPool;
+import com.jmunoz.sec08.objectpool.Poolable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// get()/release() de sec08.objectpool.
+// No usamos Bitmap porque su reset() escribe en consola y eso es lo que acabaríamos midiendo.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObjectPoolBenchmark {
+
+    // Hay un objeto por thread, así medimos el coste del pool y no las esperas.
+    private final ObjectPool<Pooled> pool = new ObjectPool<>(Pooled::new, 8);
+
+    private final ConcurrentObjectPool<Pooled> concurrentPool = new ConcurrentObjectPool<>(Pooled::new, 8);
+
+    @Benchmark
+    @Threads(1)
+    public Pooled getRelease() {
+        return cycle();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Pooled getReleaseContended() {
+        return cycle();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Pooled concurrentGetRelease() {
+        return concurrentCycle();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Pooled concurrentGetReleaseContended() {
+        return concurrentCycle();
+    }
+
+    private Pooled concurrentCycle() {
+        Pooled pooled = concurrentPool.get();
+        pooled.value++;
+        concurrentPool.release(pooled);
+        return pooled;
+    }
+
+    private Pooled cycle() {
+        Pooled pooled = pool.get();
+        pooled.value++;
+        pool.release(pooled);
+        return pooled;
+    }
+
+    public static class Pooled implements Poolable {
+
+        int value;
+
+        @Override
+        public void reset() {
+            value = 0;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec01.segregation.good.entity.Order;
+import com.jmunoz.sec01.segregation.good.entity.User;
+import com.jmunoz.sec01.segregation.good.service.OrderPersistenceService;
+import com.jmunoz.sec01.segregation.good.service.UserPersistenceService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Servicios de persistencia de sec01.segregation.good, con varios threads a la vez.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class PersistenceServiceBenchmark {
+
+    private static final int USERS = 100_000;
+
+    // Pedidos repartidos en un año, uno cada cinco minutos más o menos
+    private static final int ORDERS = 100_000;
+
+    private static final LocalDateTime FIRST_ORDER = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+    private final UserPersistenceService service = new UserPersistenceService();
+
+    private final OrderPersistenceService orders = new OrderPersistenceService();
+
+    @Setup
+    public void setup() {
+        for (long id = 0; id < USERS; id++) {
+            service.save(user(id));
+        }
+        for (long id = 0; id < ORDERS; id++) {
+            Order order = new Order();
+            order.setId(id);
+            order.setOrderPlacedOn(FIRST_ORDER.plusSeconds(id * 315));
+            order.setTotalValue(id % 500);
+            orders.save(order);
+        }
+    }
+
+    @Benchmark
+    public User findById() {
+        return service.findById((long) ThreadLocalRandom.current().nextInt(USERS));
+    }
+
+    @Benchmark
+    public List<User> findByName() {
+        return service.findByName("USER" + ThreadLocalRandom.current().nextInt(USERS));
+    }
+
+    @Benchmark
+    public List<User> findByNamePrefix() {
+        return service.findByNamePrefix("user" + ThreadLocalRandom.current().nextInt(1000), 10);
+    }
+
+    // Ingresos de una ventana de 30 días que empieza en cualquier minuto del año
+    @Benchmark
+    public double revenueBetween() {
+        LocalDateTime from = FIRST_ORDER.plusMinutes(ThreadLocalRandom.current().nextInt(335 * 24 * 60));
+        return orders.revenueBetween(from, from.plusDays(30));
+    }
+
+    // Una escritura por cada nueve lecturas
+    @Benchmark
+    public User mixed() {
+        long id = ThreadLocalRandom.current().nextInt(USERS);
+        if (id % 10 == 0) {
+            service.save(user(id));
+        }
+        return service.findById(id);
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("user" + id);
+        user.setLastLogin(LocalDateTime.now());
+        return user;
+    }
+}
@@ -0,0 +1,52 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec05.prototype.GameUnit;
+import com.jmunoz.sec05.prototype.Point3D;
+import com.jmunoz.sec05.prototype.Swordsman;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Clonación y cálculos con Point3D de sec05.prototype.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrototypeBenchmark {
+
+    private Swordsman swordsman;
+
+    private Point3D direction;
+
+    private Point3D position;
+
+    @Setup
+    public void setUp() {
+        swordsman = new Swordsman();
+        swordsman.move(new Point3D(-10, 0, 0), 20);
+        swordsman.attack();
+        direction = new Point3D(3, 4, 12);
+        position = new Point3D(1, 1, 1);
+    }
+
+    @Benchmark
+    public GameUnit cloneSwordsman() throws CloneNotSupportedException {
+        return swordsman.clone();
+    }
+
+    @Benchmark
+    public Point3D point3DMove() {
+        return position.add(direction.normalize().multiply(20));
+    }
+}
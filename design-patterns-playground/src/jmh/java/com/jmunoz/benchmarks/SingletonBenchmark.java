@@ -0,0 +1,46 @@
+package com.jmunoz.benchmarks;
+
+import com.jmunoz.sec07.eagersingleton.EagerRegistry;
+import com.jmunoz.sec07.lazysingletondcl.LazyRegistryWithDCL;
+import com.jmunoz.sec07.lazysingletonenum.RegistryEnum;
+import com.jmunoz.sec07.lazysingletoniodh.LazyRegistryIODH;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Coste de obtener la instancia en cada variante de singleton de sec07, con varios threads a la vez.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SingletonBenchmark {
+
+    @Benchmark
+    public EagerRegistry eager() {
+        return EagerRegistry.getInstance();
+    }
+
+    @Benchmark
+    public LazyRegistryWithDCL doubleCheckedLocking() {
+        return LazyRegistryWithDCL.getInstance();
+    }
+
+    @Benchmark
+    public LazyRegistryIODH initializationOnDemandHolder() {
+        return LazyRegistryIODH.getInstance();
+    }
+
+    @Benchmark
+    public RegistryEnum enumSingleton() {
+        return RegistryEnum.INSTANCE;
+    }
+}
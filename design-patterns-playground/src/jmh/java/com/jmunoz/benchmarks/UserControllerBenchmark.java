@@ -0,0 +1,66 @@
+package com.jmunoz.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jmunoz.sec01.singleresp.good.User;
+import com.jmunoz.sec01.singleresp.good.UserController;
+import com.jmunoz.sec01.singleresp.good.UserPersistenceService;
+import com.jmunoz.sec01.singleresp.good.UserValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Alta de usuarios desde JSON de sec01.singleresp.good.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserControllerBenchmark {
+
+    private static final String VALID_USER_JSON = "{\"name\": \"Randy\", \"email\": \"randy@email.com\", \"address\":\"110 Sugar lane\"}";
+
+    private static final String INVALID_USER_JSON = "{\"name\": \"Sam\", \"email\": \"sam@email\", \"address\":\"111 Sugar lane\"}";
+
+    private final UserController controller = new UserController();
+
+    private final UserController streamingController = new UserController(true);
+
+    private final UserPersistenceService persistenceService = new UserPersistenceService();
+
+    // Referencia: lo que hacía createUser() al principio, un ObjectMapper y un UserValidator nuevos en cada llamada.
+    @Benchmark
+    public String createValidUserNewMapper() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        User user = mapper.readValue(VALID_USER_JSON, User.class);
+        if (!new UserValidator().validateUser(user)) {
+            return "ERROR";
+        }
+        persistenceService.saveUser(user);
+        return "SUCCESS";
+    }
+
+    @Benchmark
+    public String createValidUser() throws IOException {
+        return controller.createUser(VALID_USER_JSON);
+    }
+
+    @Benchmark
+    public String createInvalidUser() throws IOException {
+        return controller.createUser(INVALID_USER_JSON);
+    }
+
+    @Benchmark
+    public String createValidUserStreaming() throws IOException {
+        return streamingController.createUser(VALID_USER_JSON);
+    }
+}
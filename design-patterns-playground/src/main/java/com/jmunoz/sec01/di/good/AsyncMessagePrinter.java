@@ -0,0 +1,244 @@
+package com.jmunoz.sec01.di.good;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//Writes messages from a background thread so callers never wait for I/O.
+//Callers put messages in a lock-free queue, the printer thread formats them into a buffer and flushes
+//when enough messages piled up, when the oldest unflushed message is too old, or on close.
+//If the queue is full the message is dropped and counted.
+public class AsyncMessagePrinter implements Closeable {
+
+	private static final int DEFAULT_CAPACITY = 65536;
+
+	private static final int DEFAULT_FLUSH_SIZE = 1024;
+
+	private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(100);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Formatter formatter;
+
+	private final Writer writer;
+
+	private final int capacity;
+
+	private final int flushSize;
+
+	private final long flushIntervalNanos;
+
+	private final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<>();
+
+	//messages in the queue, the queue itself has no cheap size()
+	private final AtomicInteger depth = new AtomicInteger();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private final AtomicLong flushes = new AtomicLong();
+
+	private final Thread printer;
+
+	//only used by the printer thread, a message is formatted here first so a failed one leaves nothing behind
+	private final CharArrayWriter staging = new CharArrayWriter(256);
+
+	//set by the printer thread before it parks, callers only unpark it when it's set
+	private volatile boolean parked;
+
+	private volatile boolean closed;
+
+	private volatile IOException failure;
+
+	public AsyncMessagePrinter(Formatter formatter, Writer writer) {
+		this(formatter, writer, DEFAULT_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	public AsyncMessagePrinter(Formatter formatter, Writer writer, int capacity, int flushSize, Duration flushInterval) {
+		if(capacity <= 0 || flushSize <= 0 || flushInterval.isNegative() || flushInterval.isZero()) {
+			throw new IllegalArgumentException("capacity, flushSize and flushInterval must be positive");
+		}
+		this.formatter = formatter;
+		this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+		this.capacity = capacity;
+		this.flushSize = flushSize;
+		this.flushIntervalNanos = flushInterval.toNanos();
+		this.printer = new Thread(this::printLoop, "async-message-printer");
+		this.printer.setDaemon(true);
+		this.printer.start();
+	}
+
+	//Queues the message, never blocks. False if the queue was full and the message was dropped.
+	public boolean writeMessage(Message msg) {
+		//before depth is touched, a message that never reaches the queue must not be counted in it
+		Objects.requireNonNull(msg, "msg");
+		IOException error = failure;
+		if(error != null) {
+			throw new UncheckedIOException(error);
+		}
+		//depth is taken before closed is checked and the printer only stops once closed is set and depth is 0,
+		//so either this call sees closed or the printer waits for the message
+		int queued = depth.incrementAndGet();
+		if(closed) {
+			depth.decrementAndGet();
+			throw new IllegalStateException("Printer is closed");
+		}
+		if(queued > capacity) {
+			depth.decrementAndGet();
+			dropped.incrementAndGet();
+			return false;
+		}
+		queue.offer(msg);
+		if(parked) {
+			LockSupport.unpark(printer);
+		}
+		return true;
+	}
+
+	//Messages waiting to be written
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	//Messages dropped because the queue was full, they couldn't be formatted or the writer failed
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	//Messages handed to the writer
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public long getFlushCount() {
+		return flushes.get();
+	}
+
+	//Writes and flushes everything queued so far, then stops the printer thread. Doesn't close the writer.
+	//Throws the writer failure, or an IOException if the printer thread died and queued messages were lost.
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(printer);
+		try {
+			printer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the printer", e);
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	private void printLoop() {
+		try {
+			printMessages();
+		} catch (Throwable t) {
+			//the printer is gone: fail writeMessage and close instead of queueing messages nobody will write
+			failure = new IOException("Printer thread died", t);
+			dropped.addAndGet(depth.getAndSet(0));
+			throw t;
+		}
+	}
+
+	private void printMessages() {
+		int unflushed = 0;
+		long lastFlush = System.nanoTime();
+		while(true) {
+			Message msg = queue.poll();
+			if(msg != null) {
+				depth.decrementAndGet();
+				if(write(msg)) {
+					unflushed++;
+				}
+				if(unflushed >= flushSize || (unflushed > 0 && System.nanoTime() - lastFlush >= flushIntervalNanos)) {
+					flush();
+					unflushed = 0;
+					lastFlush = System.nanoTime();
+				}
+				continue;
+			}
+			if(closed) {
+				//depth 0 with closed set means nothing else is coming, otherwise a caller is about to queue
+				if(depth.get() == 0) {
+					flush();
+					return;
+				}
+				Thread.onSpinWait();
+				continue;
+			}
+			long wait = flushIntervalNanos;
+			if(unflushed > 0) {
+				wait = lastFlush + flushIntervalNanos - System.nanoTime();
+				if(wait <= 0) {
+					flush();
+					unflushed = 0;
+					lastFlush = System.nanoTime();
+					continue;
+				}
+			}
+			//Dekker style handshake with writeMessage: park only if the queue is still empty after publishing the flag
+			parked = true;
+			if(queue.isEmpty() && !closed) {
+				LockSupport.parkNanos(this, wait);
+			}
+			parked = false;
+		}
+	}
+
+	private boolean write(Message msg) {
+		if(failure != null) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		staging.reset();
+		try {
+			formatter.format(msg, staging);
+		} catch (IOException | RuntimeException e) {
+			//the staging buffer itself never fails, so this is a FormatException or another error
+			//of this message, a formatter bug included: only it is lost, none of it reached the writer
+			dropped.incrementAndGet();
+			return false;
+		}
+		try {
+			staging.write(System.lineSeparator());
+			staging.writeTo(writer);
+			written.incrementAndGet();
+			return true;
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException("Writer failed", e);
+		}
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	private void flush() {
+		if(failure != null) {
+			return;
+		}
+		try {
+			writer.flush();
+			flushes.incrementAndGet();
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException("Writer failed", e);
+		}
+	}
+}
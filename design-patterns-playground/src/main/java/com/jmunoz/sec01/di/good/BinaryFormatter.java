@@ -0,0 +1,123 @@
+package com.jmunoz.sec01.di.good;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+//Compact binary encoding of a message: [int length][msg as UTF-8][long timestamp as UTC epoch-nanos].
+//A null msg is written as length -1 and a null timestamp as Long.MIN_VALUE.
+//Each thread encodes into its own reusable buffer, so a single instance can be shared.
+public class BinaryFormatter implements Formatter{
+
+	static final int NULL_LENGTH = -1;
+
+	static final long NULL_TIMESTAMP = Long.MIN_VALUE;
+
+	static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+
+	//Text callers get the bytes as Base64, the binary ones should use format(Message, OutputStream) or encode
+	public String format(Message message) throws FormatException {
+		ByteBuffer encoded = ENCODER.get().encode(message);
+		return Base64.getEncoder().encodeToString(copy(encoded));
+	}
+
+	@Override
+	public void format(Message message, OutputStream out) throws IOException {
+		ByteBuffer encoded = ENCODER.get().encode(message);
+		out.write(encoded.array(), encoded.arrayOffset(), encoded.limit());
+	}
+
+	//Encodes the message into the target buffer, returns the bytes written.
+	//Throws BufferOverflowException if it doesn't fit, the target position is left untouched then.
+	public int encode(Message message, ByteBuffer target) throws FormatException {
+		ByteBuffer encoded = ENCODER.get().encode(message);
+		if(encoded.remaining() > target.remaining()) {
+			throw new BufferOverflowException();
+		}
+		int length = encoded.remaining();
+		target.put(encoded);
+		return length;
+	}
+
+	static long toEpochNanos(LocalDateTime timestamp) throws FormatException {
+		if(timestamp == null) {
+			return NULL_TIMESTAMP;
+		}
+		try {
+			return Math.addExact(Math.multiplyExact(timestamp.toEpochSecond(ZoneOffset.UTC), NANOS_PER_SECOND), timestamp.getNano());
+		} catch (ArithmeticException e) {
+			//epoch-nanos in a long only cover the years 1677 to 2262
+			throw new FormatException(e);
+		}
+	}
+
+	private static byte[] copy(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	//Per-thread encoder and output buffer, the buffer grows when a message doesn't fit and is kept for the next one
+	private static final class Encoder {
+
+		private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		//Returns the shared buffer flipped for reading, valid until the next call on this thread
+		ByteBuffer encode(Message message) throws FormatException {
+			long nanos = toEpochNanos(message.getTimestamp());
+			String msg = message.getMsg();
+			buffer.clear();
+			if(msg == null) {
+				buffer.putInt(NULL_LENGTH);
+			} else {
+				buffer.position(Integer.BYTES);
+				putUtf8(msg);
+				buffer.putInt(0, buffer.position() - Integer.BYTES);
+			}
+			ensureCapacity(Long.BYTES);
+			buffer.putLong(nanos);
+			return buffer.flip();
+		}
+
+		private void putUtf8(String msg) {
+			//ASCII needs one byte per char, reserve that much up front so most messages encode in one pass
+			ensureCapacity(msg.length());
+			CharBuffer chars = CharBuffer.wrap(msg);
+			utf8.reset();
+			while(utf8.encode(chars, buffer, true).isOverflow()) {
+				grow(buffer.capacity());
+			}
+			while(utf8.flush(buffer).isOverflow()) {
+				grow(buffer.capacity());
+			}
+		}
+
+		private void ensureCapacity(int needed) {
+			if(buffer.remaining() < needed) {
+				grow(needed);
+			}
+		}
+
+		private void grow(int extra) {
+			ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() + Math.max(extra, INITIAL_BUFFER_SIZE));
+			bigger.put(buffer.flip());
+			buffer = bigger;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.jmunoz.sec01.di.good;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+//Reads messages written by BinaryFormatter.
+//An instance reads a stream of messages and reuses its buffer between them, so it's not thread-safe.
+//The static decode methods read a single message and can be used from any thread.
+public class BinaryMessageReader {
+
+	//a bigger length means a corrupt stream, not a message
+	private static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+	private final InputStream in;
+
+	private byte[] buffer = new byte[256];
+
+	public BinaryMessageReader(InputStream in) {
+		this.in = in;
+	}
+
+	//Next message of the stream or null at the end of it
+	public Message read() throws IOException {
+		int first = in.read();
+		if(first < 0) {
+			return null;
+		}
+		readFully(buffer, 0, Integer.BYTES - 1);
+		int length = (first << 24) | ((buffer[0] & 0xff) << 16) | ((buffer[1] & 0xff) << 8) | (buffer[2] & 0xff);
+		checkLength(length);
+		int size = Math.max(length, 0) + Long.BYTES;
+		if(buffer.length < size) {
+			buffer = new byte[Math.max(size, buffer.length * 2)];
+		}
+		readFully(buffer, 0, size);
+		return decode(ByteBuffer.wrap(buffer, 0, size), length);
+	}
+
+	//Decodes the message at the buffer position and moves the position past it
+	public static Message decode(ByteBuffer source) throws FormatException {
+		try {
+			int length = source.getInt();
+			checkLength(length);
+			return decode(source, length);
+		} catch (BufferUnderflowException e) {
+			throw new FormatException(e);
+		}
+	}
+
+	//Decodes a message returned by BinaryFormatter.format(Message)
+	public static Message decode(String base64) throws FormatException {
+		try {
+			return decode(ByteBuffer.wrap(Base64.getDecoder().decode(base64)));
+		} catch (IllegalArgumentException e) {
+			throw new FormatException(e);
+		}
+	}
+
+	private static Message decode(ByteBuffer source, int length) throws FormatException {
+		if(length > source.remaining() - Long.BYTES) {
+			throw new FormatException(new EOFException("Message truncated"));
+		}
+		String msg = null;
+		if(length != BinaryFormatter.NULL_LENGTH) {
+			msg = utf8(source, length);
+		}
+		return new Message(msg, toDateTime(source.getLong()));
+	}
+
+	private static String utf8(ByteBuffer source, int length) {
+		String msg;
+		if(source.hasArray()) {
+			msg = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+			source.position(source.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			source.get(bytes);
+			msg = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return msg;
+	}
+
+	private static LocalDateTime toDateTime(long nanos) {
+		if(nanos == BinaryFormatter.NULL_TIMESTAMP) {
+			return null;
+		}
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, BinaryFormatter.NANOS_PER_SECOND),
+				(int) Math.floorMod(nanos, BinaryFormatter.NANOS_PER_SECOND), ZoneOffset.UTC);
+	}
+
+	private static void checkLength(int length) throws FormatException {
+		if(length < BinaryFormatter.NULL_LENGTH || length > MAX_MESSAGE_LENGTH) {
+			throw new FormatException(new IllegalArgumentException("Invalid message length " + length));
+		}
+	}
+
+	private void readFully(byte[] bytes, int offset, int length) throws IOException {
+		while(length > 0) {
+			int read = in.read(bytes, offset, length);
+			if(read < 0) {
+				throw new EOFException("Message truncated");
+			}
+			offset += read;
+			length -= read;
+		}
+	}
+}
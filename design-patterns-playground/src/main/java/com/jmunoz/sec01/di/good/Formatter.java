@@ -1,7 +1,26 @@
 package com.jmunoz.sec01.di.good;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 public interface Formatter {
 	
 	public String format(Message message) throws FormatException;
 	
+	//Writes the formatted message straight into the writer, doesn't flush or close it.
+	//Implementations override it to skip the intermediate String.
+	public default void format(Message message, Writer writer) throws IOException {
+		writer.write(format(message));
+	}
+	
+	//Same as above, the message is written as UTF-8
+	public default void format(Message message, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		format(message, writer);
+		writer.flush();
+	}
+	
 }
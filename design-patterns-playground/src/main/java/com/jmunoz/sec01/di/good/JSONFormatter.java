@@ -1,19 +1,52 @@
 package com.jmunoz.sec01.di.good;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 public class JSONFormatter implements Formatter{
 
+	//Built once and shared, ObjectWriter is immutable and thread-safe.
+	//The target belongs to the caller: don't close it and don't flush it after every message.
+	private static final ObjectWriter WRITER = new ObjectMapper()
+			.registerModule(new JavaTimeModule())
+			.writerFor(Message.class)
+			.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			.without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+			.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
 	public String format(Message message) throws FormatException {
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.registerModule(new JavaTimeModule());
 		try {
-			return mapper.writeValueAsString(message);
+			return WRITER.writeValueAsString(message);
 		} catch (JsonProcessingException e) {
 			e.printStackTrace();
 			throw new FormatException(e);
 		}
 	}
+
+	@Override
+	public void format(Message message, Writer writer) throws IOException {
+		try {
+			WRITER.writeValue(writer, message);
+		} catch (JsonProcessingException e) {
+			throw new FormatException(e);
+		}
+	}
+
+	//Jackson encodes the UTF-8 bytes itself, no Writer in between
+	@Override
+	public void format(Message message, OutputStream out) throws IOException {
+		try {
+			WRITER.writeValue(out, message);
+		} catch (JsonProcessingException e) {
+			throw new FormatException(e);
+		}
+	}
 }
@@ -0,0 +1,216 @@
+package com.jmunoz.sec01.di.good;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+//File sink for MessagePrinter: text is encoded as UTF-8 straight into memory-mapped, pre-allocated segment files,
+//so a write is a memory copy and a process crash loses nothing the kernel already has.
+//A new segment starts when the current one is full or older than the roll interval,
+//preferably at the start of a line. Finished segments are truncated to what was written.
+public class MappedRollingFileWriter extends Writer {
+
+	private static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final Duration DEFAULT_ROLL_INTERVAL = Duration.ofHours(1);
+
+	//UTF-8 needs at most 3 bytes per char (a surrogate pair takes 4 bytes for 2 chars)
+	private static final int MAX_BYTES_PER_CHAR = 3;
+
+	private static final int MIN_SEGMENT_SIZE = 1024;
+
+	private final Path directory;
+
+	private final String prefix;
+
+	private final int segmentSize;
+
+	private final long rollIntervalNanos;
+
+	private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private int segmentIndex;
+
+	private FileChannel channel;
+
+	private MappedByteBuffer segment;
+
+	private long segmentOpened;
+
+	private boolean lineStart = true;
+
+	//high surrogate that ended the last write, its low half comes with the next one. 0 if none.
+	private char pendingHigh;
+
+	private boolean closed;
+
+	public MappedRollingFileWriter(Path directory, String prefix) throws IOException {
+		this(directory, prefix, DEFAULT_SEGMENT_SIZE, DEFAULT_ROLL_INTERVAL);
+	}
+
+	public MappedRollingFileWriter(Path directory, String prefix, long segmentSize, Duration rollInterval) throws IOException {
+		if(segmentSize < MIN_SEGMENT_SIZE || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segmentSize must be between " + MIN_SEGMENT_SIZE + " and " + Integer.MAX_VALUE);
+		}
+		if(rollInterval.isNegative() || rollInterval.isZero()) {
+			throw new IllegalArgumentException("rollInterval must be positive");
+		}
+		this.directory = directory;
+		this.prefix = prefix;
+		this.segmentSize = (int) segmentSize;
+		this.rollIntervalNanos = rollInterval.toNanos();
+		Files.createDirectories(directory);
+		while(Files.exists(segmentFile(segmentIndex))) {
+			segmentIndex++;
+		}
+		if(segmentIndex > 0) {
+			trimCrashedSegment(segmentFile(segmentIndex - 1));
+		}
+		openSegment();
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		synchronized(lock) {
+			append(CharBuffer.wrap(cbuf, off, len));
+		}
+	}
+
+	//Encodes the string in place, Writer would copy it into a char[] first
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		synchronized(lock) {
+			append(CharBuffer.wrap(str, off, off + len));
+		}
+	}
+
+	//Nothing to do, the text is in the mapped file as soon as write returns. force() syncs it to the device.
+	@Override
+	public void flush() throws IOException {
+		synchronized(lock) {
+			ensureOpen();
+		}
+	}
+
+	//Syncs the current segment to the device, needed only to survive an OS crash or power loss
+	public void force() throws IOException {
+		synchronized(lock) {
+			ensureOpen();
+			segment.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(lock) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			if(pendingHigh != 0) {
+				//a lone high surrogate, encoded as the replacement character
+				CharBuffer lone = CharBuffer.wrap(new char[] {pendingHigh});
+				pendingHigh = 0;
+				while(utf8.encode(lone, segment, true).isOverflow()) {
+					roll();
+				}
+			}
+			finishSegment();
+		}
+	}
+
+	private void append(CharBuffer chars) throws IOException {
+		ensureOpen();
+		if(!chars.hasRemaining()) {
+			return;
+		}
+		boolean endsLine = chars.get(chars.limit() - 1) == '\n';
+		if(lineStart && segment.position() > 0
+				&& (System.nanoTime() - segmentOpened >= rollIntervalNanos
+					|| (long) chars.remaining() * MAX_BYTES_PER_CHAR > segment.remaining())) {
+			roll();
+		}
+		while(pendingHigh != 0 && chars.hasRemaining()) {
+			CharBuffer pair = CharBuffer.wrap(new char[] {pendingHigh, chars.get()});
+			pendingHigh = 0;
+			encode(pair);
+			if(pair.hasRemaining()) {
+				pendingHigh = pair.get();
+			}
+		}
+		encode(chars);
+		if(chars.hasRemaining()) {
+			//only a trailing high surrogate is left behind by the encoder
+			pendingHigh = chars.get();
+		}
+		lineStart = endsLine;
+	}
+
+	//A line longer than the space left is split across two segments
+	private void encode(CharBuffer chars) throws IOException {
+		while(utf8.encode(chars, segment, false).isOverflow()) {
+			roll();
+		}
+	}
+
+	private void roll() throws IOException {
+		finishSegment();
+		segmentIndex++;
+		openSegment();
+	}
+
+	private void openSegment() throws IOException {
+		channel = FileChannel.open(segmentFile(segmentIndex),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		segmentOpened = System.nanoTime();
+	}
+
+	//Drops the unused, pre-allocated tail of the segment
+	private void finishSegment() throws IOException {
+		try {
+			channel.truncate(segment.position());
+		} finally {
+			channel.close();
+		}
+	}
+
+	//A segment left by a crash still has its zero-filled pre-allocated tail, trailing zero bytes are taken as unused
+	private static void trimCrashedSegment(Path file) throws IOException {
+		try(FileChannel crashed = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = crashed.size();
+			if(size == 0) {
+				return;
+			}
+			MappedByteBuffer content = crashed.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int end = (int) size;
+			while(end > 0 && content.get(end - 1) == 0) {
+				end--;
+			}
+			if(end < size) {
+				crashed.truncate(end);
+			}
+		}
+	}
+
+	private Path segmentFile(int index) {
+		return directory.resolve(String.format("%s-%06d.log", prefix, index));
+	}
+
+	private void ensureOpen() throws IOException {
+		if(closed) {
+			throw new IOException("Writer is closed");
+		}
+	}
+}
@@ -14,6 +14,12 @@ public class Message {
 		this.timestamp = LocalDateTime.now(ZoneId.of("UTC"));
 	}
 
+	//For readers that rebuild a message, timestamp in UTC
+	public Message(String msg, LocalDateTime timestamp) {
+		this.msg = msg;
+		this.timestamp = timestamp;
+	}
+
 	public String getMsg() {
 		return msg;
 	}
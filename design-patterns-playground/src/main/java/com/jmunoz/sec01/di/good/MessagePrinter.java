@@ -3,6 +3,7 @@ package com.jmunoz.sec01.di.good;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 
 public class MessagePrinter {
 
@@ -14,4 +15,12 @@ public class MessagePrinter {
 
 		
 	}
+
+	//Streams the formatted message into the writer, one message per line.
+	//Doesn't flush, so a buffered writer can batch many messages per write.
+	public void writeMessage(Message msg, Formatter formatter, Writer writer) throws IOException {
+
+		formatter.format(msg, writer);
+		writer.write(System.lineSeparator());
+	}
 }
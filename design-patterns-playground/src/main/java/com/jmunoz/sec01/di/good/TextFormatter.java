@@ -1,8 +1,18 @@
 package com.jmunoz.sec01.di.good;
 
+import java.io.IOException;
+import java.io.Writer;
+
 public class TextFormatter implements Formatter{
 
 	public String format(Message message){
 		return message.getTimestamp()+":"+message.getMsg();
 	}
+
+	@Override
+	public void format(Message message, Writer writer) throws IOException {
+		writer.write(String.valueOf(message.getTimestamp()));
+		writer.write(':');
+		writer.write(String.valueOf(message.getMsg()));
+	}
 }
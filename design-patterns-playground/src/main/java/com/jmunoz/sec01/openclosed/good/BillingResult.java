@@ -0,0 +1,34 @@
+package com.jmunoz.sec01.openclosed.good;
+
+//Bills computed by BulkBillingEngine, kept in parallel primitive arrays in the order the subscribers were given
+public class BillingResult {
+
+    private final long[] subscriberIds;
+
+    private final double[] amounts;
+
+    BillingResult(long[] subscriberIds, double[] amounts) {
+        this.subscriberIds = subscriberIds;
+        this.amounts = amounts;
+    }
+
+    public int size() {
+        return subscriberIds.length;
+    }
+
+    public long getSubscriberId(int index) {
+        return subscriberIds[index];
+    }
+
+    public double getAmount(int index) {
+        return amounts[index];
+    }
+
+    public double getTotalAmount() {
+        double total = 0;
+        for(double amount : amounts) {
+            total += amount;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,97 @@
+package com.jmunoz.sec01.openclosed.good;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//Bills a batch of subscribers (of any type) in parallel on its own fork/join pool
+public class BulkBillingEngine implements AutoCloseable {
+
+    //subscribers billed by a single task before it stops splitting
+    private static final int LEAF_SIZE = 1024;
+
+    private final ForkJoinPool pool;
+
+    public BulkBillingEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BulkBillingEngine(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public BillingResult calculateBills(Collection<? extends Subscriber> subscribers) {
+        return calculateBills(subscribers, null, null);
+    }
+
+    //Bills only the billing period [from, to). A null bound leaves that side of the period open,
+    //so both null bills the whole history.
+    //BillingResult keeps primitive ids, so every subscriber must have one: a missing id is an IllegalArgumentException.
+    public BillingResult calculateBills(Collection<? extends Subscriber> subscribers, LocalDateTime from, LocalDateTime to) {
+        Subscriber[] batch = subscribers.toArray(new Subscriber[0]);
+        for(int i = 0; i < batch.length; i++) {
+            if(batch[i].getSubscriberId() == null) {
+                throw new IllegalArgumentException("Subscriber at index " + i + " has no subscriberId");
+            }
+        }
+        long[] subscriberIds = new long[batch.length];
+        double[] amounts = new double[batch.length];
+        pool.invoke(new BillingTask(batch, subscriberIds, amounts, from, to, 0, batch.length));
+        return new BillingResult(subscriberIds, amounts);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    //Every task writes its own slice of the result arrays, so no synchronization is needed
+    private static final class BillingTask extends RecursiveAction {
+
+        private final Subscriber[] batch;
+
+        private final long[] subscriberIds;
+
+        private final double[] amounts;
+
+        private final LocalDateTime periodFrom;
+
+        private final LocalDateTime periodTo;
+
+        private final int from;
+
+        private final int to;
+
+        BillingTask(Subscriber[] batch, long[] subscriberIds, double[] amounts,
+                    LocalDateTime periodFrom, LocalDateTime periodTo, int from, int to) {
+            this.batch = batch;
+            this.subscriberIds = subscriberIds;
+            this.amounts = amounts;
+            this.periodFrom = periodFrom;
+            this.periodTo = periodTo;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= LEAF_SIZE) {
+                for(int i = from; i < to; i++) {
+                    subscriberIds[i] = batch[i].getSubscriberId();
+                    amounts[i] = periodFrom == null && periodTo == null
+                            ? batch[i].calculateBill()
+                            : batch[i].calculateBill(periodFrom, periodTo);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BillingTask(batch, subscriberIds, amounts, periodFrom, periodTo, from, middle),
+                    new BillingTask(batch, subscriberIds, amounts, periodFrom, periodTo, middle, to));
+        }
+    }
+}
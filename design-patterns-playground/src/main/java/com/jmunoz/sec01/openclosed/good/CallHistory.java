@@ -1,33 +1,58 @@
 package com.jmunoz.sec01.openclosed.good;
 
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class CallHistory {
 
+    //A call, also the view of a stored record that the history returns. The begin is kept as UTC epoch second
+    //and nano of second, no LocalDateTime is retained: getBegin() builds it on demand
     public static class Call {
-        
-        private LocalDateTime begin;
-        
-        private long duration;
 
-        private Long subscriberId;
+        //beginNano of a call created without a begin
+        private static final int NO_BEGIN = -1;
+
+        private final long beginEpochSecond;
+
+        private final int beginNano;
+
+        private final Long subscriberId;
+
+        private final long duration;
 
         public Call(Long subscriberId, LocalDateTime begin, long duration) {
-            this.begin = begin;
-            this.duration = duration;
+            this(subscriberId, begin == null ? 0 : begin.toEpochSecond(ZoneOffset.UTC), begin == null ? NO_BEGIN : begin.getNano(), duration);
+        }
+
+        //view of a stored record, the subscriberId instance is shared by every call read in the same query
+        Call(Long subscriberId, long beginEpochMicro, long duration) {
+            this(subscriberId, UsageBuffer.epochSecond(beginEpochMicro), UsageBuffer.nanoOfSecond(beginEpochMicro), duration);
+        }
+
+        private Call(Long subscriberId, long beginEpochSecond, int beginNano, long duration) {
+            this.beginEpochSecond = beginEpochSecond;
+            this.beginNano = beginNano;
             this.subscriberId = subscriberId;
+            this.duration = duration;
         }
 
         /**
          * @return the begin
          */
         public LocalDateTime getBegin() {
-            return begin;
+            return beginNano == NO_BEGIN ? null : LocalDateTime.ofEpochSecond(beginEpochSecond, beginNano, ZoneOffset.UTC);
+        }
+
+        /**
+         * @return the begin as UTC epoch-micros
+         */
+        public long getBeginEpochMicro() {
+            if(beginNano == NO_BEGIN) {
+                throw new IllegalStateException("Call has no begin");
+            }
+            return UsageBuffer.toEpochMicro(beginEpochSecond, beginNano);
         }
 
         /**
@@ -46,23 +71,59 @@ public class CallHistory {
 
     }
 
-    private static final Map<Long, List<Call>> CALLS = new HashMap<>();
+    //calls are kept as primitive begin/duration pairs and only turned into Call objects when read
+    private static volatile UsageStore store = new ShardedUsageStore();
 
-    public synchronized static List<Call> getCurrentCalls(Long subscriberId) {
-        if(!CALLS.containsKey(subscriberId)) {
-            return Collections.emptyList();
+    //Replaces the in-memory store, e.g. with a MappedUsageStore to keep the history on disk
+    public static void setStore(UsageStore usageStore) {
+        store = usageStore;
+    }
+
+    public static List<Call> getCurrentCalls(Long subscriberId) {
+        return toCalls(subscriberId, snapshot(subscriberId, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    //Calls of the subscriber with from <= begin < to, a null bound leaves that side open
+    public static List<Call> calls(Long subscriberId, LocalDateTime from, LocalDateTime to) {
+        return toCalls(subscriberId, snapshot(subscriberId, UsageBuffer.windowFrom(from), UsageBuffer.windowTo(to)));
+    }
+
+    //Sum of the durations of every call of the subscriber, kept up to date by addSession
+    public static long getTotalDuration(Long subscriberId) {
+        return subscriberId == null ? 0 : store.total(subscriberId);
+    }
+
+    //Sum of the durations of the calls with from <= begin < to, a null bound leaves that side open
+    public static long getTotalDuration(Long subscriberId, LocalDateTime from, LocalDateTime to) {
+        return subscriberId == null ? 0 : store.total(subscriberId, UsageBuffer.windowFrom(from), UsageBuffer.windowTo(to));
+    }
+
+    //Visits the calls with from <= begin < to without creating Call objects
+    public static void forEachCall(Long subscriberId, LocalDateTime from, LocalDateTime to, UsageConsumer consumer) {
+        long[] records = snapshot(subscriberId, UsageBuffer.windowFrom(from), UsageBuffer.windowTo(to));
+        for(int i = 0; i < records.length; i += 2) {
+            consumer.accept(records[i], records[i + 1]);
         }
-        return CALLS.get(subscriberId);
     }
 
-    public synchronized static void addSession(Long subscriberId, LocalDateTime begin, long duration) {
-        List<Call> calls;
-        if(!CALLS.containsKey(subscriberId)) {
-            calls = new LinkedList<>();
-            CALLS.put(subscriberId, calls);
-        } else {
-            calls = CALLS.get(subscriberId);
+    //The store keys subscribers by primitive id and begin, so both are required
+    public static void addSession(Long subscriberId, LocalDateTime begin, long duration) {
+        if(subscriberId == null || begin == null) {
+            throw new IllegalArgumentException("subscriberId and begin are required");
+        }
+        store.append(subscriberId, UsageBuffer.toEpochMicro(begin), duration);
+    }
+
+    //a null subscriberId has no calls
+    private static long[] snapshot(Long subscriberId, long from, long to) {
+        return subscriberId == null ? new long[0] : store.snapshot(subscriberId, from, to);
+    }
+
+    private static List<Call> toCalls(Long subscriberId, long[] records) {
+        List<Call> calls = new ArrayList<>(records.length / 2);
+        for(int i = 0; i < records.length; i += 2) {
+            calls.add(new Call(subscriberId, records[i], records[i + 1]));
         }
-        calls.add(new Call(subscriberId, begin, duration));
+        return calls;
     }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package com.jmunoz.sec01.openclosed.good;
 
-import java.util.List;
+import java.time.LocalDateTime;
 
 public class ISPSubscriber extends Subscriber {
 
@@ -9,8 +9,17 @@ public class ISPSubscriber extends Subscriber {
     //only for demonstration
     @Override
     public double calculateBill() {
-        List<InternetSessionHistory.InternetSession> sessions = InternetSessionHistory.getCurrentSessions(subscriberId);
-        long totalData = sessions.stream().mapToLong(InternetSessionHistory.InternetSession::getDataUsed).sum();
+        long totalData = InternetSessionHistory.getTotalDataUsed(subscriberId);
+        return bill(totalData);
+    }
+
+    @Override
+    public double calculateBill(LocalDateTime from, LocalDateTime to) {
+        long totalData = InternetSessionHistory.getTotalDataUsed(subscriberId, from, to);
+        return bill(totalData);
+    }
+
+    private double bill(long totalData) {
         long chargeableData = totalData - freeUsage;
         
         if(chargeableData <= 0) {
@@ -1,33 +1,58 @@
 package com.jmunoz.sec01.openclosed.good;
 
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class InternetSessionHistory {
 
+    //A session, also the view of a stored record that the history returns. The begin is kept as UTC epoch second
+    //and nano of second, no LocalDateTime is retained: getBegin() builds it on demand
     public static class InternetSession {
-        
-        private LocalDateTime begin;
 
-        private Long subscriberId;
+        //beginNano of a session created without a begin
+        private static final int NO_BEGIN = -1;
+
+        private final long beginEpochSecond;
+
+        private final int beginNano;
+
+        private final Long subscriberId;
+
+        private final long dataUsed;
 
-        private Long dataUsed;
-        
         public InternetSession(Long subscriberId, LocalDateTime begin, long dataUsed) {
-            this.begin = begin;
-            this.dataUsed = dataUsed;
+            this(subscriberId, begin == null ? 0 : begin.toEpochSecond(ZoneOffset.UTC), begin == null ? NO_BEGIN : begin.getNano(), dataUsed);
+        }
+
+        //view of a stored record, the subscriberId instance is shared by every session read in the same query
+        InternetSession(Long subscriberId, long beginEpochMicro, long dataUsed) {
+            this(subscriberId, UsageBuffer.epochSecond(beginEpochMicro), UsageBuffer.nanoOfSecond(beginEpochMicro), dataUsed);
+        }
+
+        private InternetSession(Long subscriberId, long beginEpochSecond, int beginNano, long dataUsed) {
+            this.beginEpochSecond = beginEpochSecond;
+            this.beginNano = beginNano;
             this.subscriberId = subscriberId;
+            this.dataUsed = dataUsed;
         }
 
         /**
          * @return the begin
          */
         public LocalDateTime getBegin() {
-            return begin;
+            return beginNano == NO_BEGIN ? null : LocalDateTime.ofEpochSecond(beginEpochSecond, beginNano, ZoneOffset.UTC);
+        }
+
+        /**
+         * @return the begin as UTC epoch-micros
+         */
+        public long getBeginEpochMicro() {
+            if(beginNano == NO_BEGIN) {
+                throw new IllegalStateException("InternetSession has no begin");
+            }
+            return UsageBuffer.toEpochMicro(beginEpochSecond, beginNano);
         }
 
         /**
@@ -45,23 +70,59 @@ public class InternetSessionHistory {
         }
 
     }
-    private static final Map<Long, List<InternetSession>> SESSIONS = new HashMap<>();
+    //sessions are kept as primitive begin/dataUsed pairs and only turned into InternetSession objects when read
+    private static volatile UsageStore store = new ShardedUsageStore();
 
-    public synchronized static List<InternetSession> getCurrentSessions(Long subscriberId) {
-        if(!SESSIONS.containsKey(subscriberId)) {
-            return Collections.emptyList();
+    //Replaces the in-memory store, e.g. with a MappedUsageStore to keep the history on disk
+    public static void setStore(UsageStore usageStore) {
+        store = usageStore;
+    }
+
+    public static List<InternetSession> getCurrentSessions(Long subscriberId) {
+        return toSessions(subscriberId, snapshot(subscriberId, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    //Sessions of the subscriber with from <= begin < to, a null bound leaves that side open
+    public static List<InternetSession> sessions(Long subscriberId, LocalDateTime from, LocalDateTime to) {
+        return toSessions(subscriberId, snapshot(subscriberId, UsageBuffer.windowFrom(from), UsageBuffer.windowTo(to)));
+    }
+
+    //Sum of the data used in every session of the subscriber, kept up to date by addSession
+    public static long getTotalDataUsed(Long subscriberId) {
+        return subscriberId == null ? 0 : store.total(subscriberId);
+    }
+
+    //Sum of the data used in the sessions with from <= begin < to, a null bound leaves that side open
+    public static long getTotalDataUsed(Long subscriberId, LocalDateTime from, LocalDateTime to) {
+        return subscriberId == null ? 0 : store.total(subscriberId, UsageBuffer.windowFrom(from), UsageBuffer.windowTo(to));
+    }
+
+    //Visits the sessions with from <= begin < to without creating InternetSession objects
+    public static void forEachSession(Long subscriberId, LocalDateTime from, LocalDateTime to, UsageConsumer consumer) {
+        long[] records = snapshot(subscriberId, UsageBuffer.windowFrom(from), UsageBuffer.windowTo(to));
+        for(int i = 0; i < records.length; i += 2) {
+            consumer.accept(records[i], records[i + 1]);
         }
-        return SESSIONS.get(subscriberId);
     }
 
-    public synchronized static void addSession(Long subscriberId, LocalDateTime begin, long dataUsed) {
-        List<InternetSession> sessions;
-        if(!SESSIONS.containsKey(subscriberId)) {
-            sessions = new LinkedList<>();
-            SESSIONS.put(subscriberId, sessions);
-        } else {
-            sessions = SESSIONS.get(subscriberId);
+    //The store keys subscribers by primitive id and begin, so both are required
+    public static void addSession(Long subscriberId, LocalDateTime begin, long dataUsed) {
+        if(subscriberId == null || begin == null) {
+            throw new IllegalArgumentException("subscriberId and begin are required");
+        }
+        store.append(subscriberId, UsageBuffer.toEpochMicro(begin), dataUsed);
+    }
+
+    //a null subscriberId has no sessions
+    private static long[] snapshot(Long subscriberId, long from, long to) {
+        return subscriberId == null ? new long[0] : store.snapshot(subscriberId, from, to);
+    }
+
+    private static List<InternetSession> toSessions(Long subscriberId, long[] records) {
+        List<InternetSession> sessions = new ArrayList<>(records.length / 2);
+        for(int i = 0; i < records.length; i += 2) {
+            sessions.add(new InternetSession(subscriberId, records[i], records[i + 1]));
         }
-        sessions.add(new InternetSession(subscriberId, begin, dataUsed));
+        return sessions;
     }
 }
\ No newline at end of file
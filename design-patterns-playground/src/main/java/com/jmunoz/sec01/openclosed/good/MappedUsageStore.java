@@ -0,0 +1,478 @@
+package com.jmunoz.sec01.openclosed.good;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+//Disk-backed store: records are fixed-width binary slots in memory-mapped, pre-allocated segment files,
+//so the history survives a restart and the records themselves live off the heap.
+//The heap only keeps, per subscriber, its running total and the positions of its records sorted by begin,
+//8 bytes per record, so window queries are a binary search plus a read of the records in the window.
+public class MappedUsageStore implements UsageStore, Closeable {
+
+    //magic, format version, records per segment, padding. Records start right after it.
+    private static final int HEADER_SIZE = 32;
+
+    private static final long MAGIC = 0x5553414745534547L;
+
+    //3 since begins are epoch-micros, version 2 segments hold epoch-millis
+    private static final int VERSION = 3;
+
+    //subscriberId, begin, amount, checksum
+    private static final int RECORD_SIZE = 32;
+
+    private static final int BEGIN_OFFSET = 8;
+
+    private static final int AMOUNT_OFFSET = 16;
+
+    private static final int CHECKSUM_OFFSET = 24;
+
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 20;
+
+    //a segment is mapped as a single buffer, so it must fit in an int offset
+    private static final int MAX_RECORDS_PER_SEGMENT = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    private static final long[] NO_RECORDS = new long[0];
+
+    private static final int SHARD_BITS = 6;
+
+    private final Path directory;
+
+    private final int recordsPerSegment;
+
+    private final AtomicLong nextPosition = new AtomicLong();
+
+    private final Shard[] shards = new Shard[1 << SHARD_BITS];
+
+    //grows copy-on-write, readers never lock to find a segment
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    private MappedUsageStore(Path directory, int recordsPerSegment) {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        for(int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    //Opens the store with the segment size it was created with, or the default one if the directory is new
+    public static MappedUsageStore open(Path directory) throws IOException {
+        Integer stored = storedRecordsPerSegment(directory);
+        return open(directory, stored != null ? stored : DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    //Opens the store and rebuilds its index from the segments already in the directory.
+    //Fails if those segments were written with a different recordsPerSegment.
+    public static MappedUsageStore open(Path directory, int recordsPerSegment) throws IOException {
+        if(recordsPerSegment < 1 || recordsPerSegment > MAX_RECORDS_PER_SEGMENT) {
+            throw new IllegalArgumentException("recordsPerSegment must be between 1 and " + MAX_RECORDS_PER_SEGMENT);
+        }
+        Files.createDirectories(directory);
+        MappedUsageStore store = new MappedUsageStore(directory, recordsPerSegment);
+        store.recover();
+        return store;
+    }
+
+    //No allocation unless it is the first record of the subscriber, its index has to grow or a new segment has to be mapped
+    @Override
+    public void append(long subscriberId, long begin, long amount) {
+        int hash = ShardedUsageStore.hash(subscriberId);
+        Shard shard = shards[hash & (shards.length - 1)];
+        long stamp = shard.lock.writeLock();
+        try {
+            //reserved under the shard lock so the records of a subscriber are written in position order
+            long position = nextPosition.getAndIncrement();
+            write(position, subscriberId, begin, amount);
+            shard.add(shard.slotFor(subscriberId, hash >>> SHARD_BITS), position, begin, amount);
+        } finally {
+            shard.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long total(long subscriberId) {
+        int hash = ShardedUsageStore.hash(subscriberId);
+        Shard shard = shards[hash & (shards.length - 1)];
+        long stamp = shard.lock.tryOptimisticRead();
+        if(stamp != 0) {
+            long total = shard.total(subscriberId, hash >>> SHARD_BITS);
+            if(shard.lock.validate(stamp)) {
+                return total;
+            }
+        }
+        stamp = shard.lock.readLock();
+        try {
+            return shard.total(subscriberId, hash >>> SHARD_BITS);
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    //O(log n) to find the window plus one read per record in it
+    @Override
+    public long total(long subscriberId, long from, long to) {
+        long total = 0;
+        for(long position : positions(subscriberId, from, to)) {
+            total += field(position, AMOUNT_OFFSET);
+        }
+        return total;
+    }
+
+    @Override
+    public long[] snapshot(long subscriberId, long from, long to) {
+        long[] positions = positions(subscriberId, from, to);
+        if(positions.length == 0) {
+            return NO_RECORDS;
+        }
+        long[] pairs = new long[positions.length * 2];
+        for(int i = 0; i < positions.length; i++) {
+            pairs[i * 2] = field(positions[i], BEGIN_OFFSET);
+            pairs[i * 2 + 1] = field(positions[i], AMOUNT_OFFSET);
+        }
+        return pairs;
+    }
+
+    //Flushes the mapped segments to the device, a process crash alone loses nothing without it
+    public void force() {
+        for(MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    //Positions of the records of the subscriber with from <= begin < to, in begin order.
+    //Only the bounds are searched under the read lock, records never change once written so they are read after it.
+    private long[] positions(long subscriberId, long from, long to) {
+        if(from >= to) {
+            return NO_RECORDS;
+        }
+        int hash = ShardedUsageStore.hash(subscriberId);
+        Shard shard = shards[hash & (shards.length - 1)];
+        long stamp = shard.lock.readLock();
+        try {
+            return shard.positions(subscriberId, hash >>> SHARD_BITS, from, to);
+        } finally {
+            shard.lock.unlockRead(stamp);
+        }
+    }
+
+    //The checksum goes last, a record is only valid on recovery once it is complete
+    private void write(long position, long subscriberId, long begin, long amount) {
+        MappedByteBuffer segment = segment((int) (position / recordsPerSegment));
+        int offset = offset(position);
+        segment.putLong(offset, subscriberId);
+        segment.putLong(offset + BEGIN_OFFSET, begin);
+        segment.putLong(offset + AMOUNT_OFFSET, amount);
+        segment.putLong(offset + CHECKSUM_OFFSET, checksum(subscriberId, begin, amount));
+    }
+
+    private long field(long position, int fieldOffset) {
+        MappedByteBuffer segment = segments[(int) (position / recordsPerSegment)];
+        return segment.getLong(offset(position) + fieldOffset);
+    }
+
+    //recordsPerSegment is capped on open so this can't overflow
+    private int offset(long position) {
+        return HEADER_SIZE + (int) (position % recordsPerSegment) * RECORD_SIZE;
+    }
+
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer[] current = segments;
+        if(index < current.length) {
+            return current[index];
+        }
+        synchronized(this) {
+            current = segments;
+            if(index >= current.length) {
+                MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+                for(int i = current.length; i <= index; i++) {
+                    grown[i] = map(i);
+                }
+                segments = grown;
+                current = grown;
+            }
+            return current[index];
+        }
+    }
+
+    //A new segment gets its header here, an existing one must have been written with the same layout
+    private MappedByteBuffer map(int index) {
+        Path file = segmentFile(index);
+        try(FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) recordsPerSegment * RECORD_SIZE);
+            if(segment.getLong(0) == 0) {
+                segment.putInt(8, VERSION);
+                segment.putInt(12, recordsPerSegment);
+                //magic last, a segment is only initialized once it is there
+                segment.putLong(0, MAGIC);
+            } else {
+                checkHeader(file, segment.getLong(0), segment.getInt(8), segment.getInt(12), recordsPerSegment);
+            }
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentFile(int index) {
+        return segmentFile(directory, index);
+    }
+
+    private static Path segmentFile(Path directory, int index) {
+        return directory.resolve(String.format("segment-%06d.dat", index));
+    }
+
+    //recordsPerSegment saved in the first segment, or null if there is none
+    private static Integer storedRecordsPerSegment(Path directory) throws IOException {
+        Path file = segmentFile(directory, 0);
+        if(!Files.exists(file)) {
+            return null;
+        }
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if(header.getLong(0) == 0) {
+                return null;
+            }
+            checkHeader(file, header.getLong(0), header.getInt(8), header.getInt(12), header.getInt(12));
+            return header.getInt(12);
+        }
+    }
+
+    private static void checkHeader(Path file, long magic, int version, int stored, int expected) throws IOException {
+        if(magic != MAGIC || version != VERSION) {
+            throw new IOException(file + " is not a usage segment of version " + VERSION);
+        }
+        if(stored != expected) {
+            throw new IOException(file + " was written with " + stored + " records per segment, not " + expected);
+        }
+    }
+
+    //Replays every segment in position order. Appenders on different shards reserve positions before writing,
+    //so a crash can leave torn or empty slots between committed records: those are skipped, not taken as the end.
+    //Everything after the last valid record is wiped, so it can't come back to life on a later recovery.
+    private void recover() throws IOException {
+        int segmentCount = 0;
+        while(Files.exists(segmentFile(segmentCount))) {
+            segmentCount++;
+        }
+        long next = 0;
+        long position = 0;
+        for(int index = 0; index < segmentCount; index++) {
+            MappedByteBuffer segment;
+            try {
+                segment = segment(index);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for(int slot = 0; slot < recordsPerSegment; slot++, position++) {
+                if(replay(segment, offset(position), position)) {
+                    next = position + 1;
+                }
+            }
+        }
+        discardFrom(next, segmentCount);
+        nextPosition.set(next);
+    }
+
+    private boolean replay(MappedByteBuffer segment, int offset, long position) {
+        long subscriberId = segment.getLong(offset);
+        long begin = segment.getLong(offset + BEGIN_OFFSET);
+        long amount = segment.getLong(offset + AMOUNT_OFFSET);
+        if(segment.getLong(offset + CHECKSUM_OFFSET) != checksum(subscriberId, begin, amount)) {
+            return false;
+        }
+        int hash = ShardedUsageStore.hash(subscriberId);
+        Shard shard = shards[hash & (shards.length - 1)];
+        shard.add(shard.slotFor(subscriberId, hash >>> SHARD_BITS), position, begin, amount);
+        return true;
+    }
+
+    //Wipes the slots from position on and deletes the segments left without records
+    private void discardFrom(long position, int segmentCount) throws IOException {
+        int index = (int) (position / recordsPerSegment);
+        if(index < segmentCount) {
+            MappedByteBuffer segment = segments[index];
+            for(long p = position; p < (long) (index + 1) * recordsPerSegment; p++) {
+                if(segment.getLong(offset(p) + CHECKSUM_OFFSET) != 0) {
+                    segment.putLong(offset(p) + CHECKSUM_OFFSET, 0);
+                }
+            }
+            segment.force();
+        }
+        for(int i = index + 1; i < segmentCount; i++) {
+            Files.delete(segmentFile(i));
+        }
+        segments = Arrays.copyOf(segments, Math.min(segmentCount, index + 1));
+    }
+
+    //never 0, a zeroed slot is never taken for a record
+    private static long checksum(long subscriberId, long begin, long amount) {
+        long hash = subscriberId * 0x9e3779b97f4a7c15L;
+        hash = (hash ^ begin) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ amount) * 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return hash == 0 ? 1 : hash;
+    }
+
+    //Open-addressing map from subscriber id to its running total and its record positions sorted by begin
+    private final class Shard {
+
+        private final StampedLock lock = new StampedLock();
+
+        private long[] keys = new long[16];
+
+        private long[] totals = new long[16];
+
+        //null for a free slot
+        private long[][] positions = new long[16][];
+
+        private int[] counts = new int[16];
+
+        private int size;
+
+        long total(long key, int hash) {
+            int slot = find(key, hash);
+            return slot < 0 ? 0 : totals[slot];
+        }
+
+        //Caller holds the read lock
+        long[] positions(long key, int hash, long from, long to) {
+            int slot = find(key, hash);
+            if(slot < 0) {
+                return NO_RECORDS;
+            }
+            long[] sorted = positions[slot];
+            int count = counts[slot];
+            int first = lowerBound(sorted, count, from);
+            int last = Math.max(first, lowerBound(sorted, count, to));
+            return Arrays.copyOfRange(sorted, first, last);
+        }
+
+        //Caller holds the write lock
+        int slotFor(long key, int hash) {
+            int slot = find(key, hash);
+            if(slot >= 0) {
+                return slot;
+            }
+            if((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            size++;
+            return insert(key, hash, new long[4], 0, 0);
+        }
+
+        //Caller holds the write lock. Records usually arrive in begin order and are appended,
+        //a late one is shifted into place, after the records with the same begin.
+        void add(int slot, long position, long begin, long amount) {
+            long[] sorted = positions[slot];
+            int count = counts[slot];
+            if(count == sorted.length) {
+                sorted = Arrays.copyOf(sorted, count * 2);
+                positions[slot] = sorted;
+            }
+            int index = count;
+            if(count > 0 && begin < field(sorted[count - 1], BEGIN_OFFSET)) {
+                index = upperBound(sorted, count, begin);
+                System.arraycopy(sorted, index, sorted, index + 1, count - index);
+            }
+            sorted[index] = position;
+            counts[slot] = count + 1;
+            totals[slot] += amount;
+        }
+
+        //index of the first position whose record has begin >= key
+        private int lowerBound(long[] sorted, int count, long key) {
+            int low = 0;
+            int high = count;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(field(sorted[middle], BEGIN_OFFSET) < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        //index of the first position whose record has begin > key
+        private int upperBound(long[] sorted, int count, long key) {
+            int low = 0;
+            int high = count;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(field(sorted[middle], BEGIN_OFFSET) <= key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        //May run against a half-resized table during an optimistic read, the stamp validation discards that result
+        private int find(long key, int hash) {
+            long[] currentKeys = keys;
+            long[][] currentPositions = positions;
+            if(currentKeys.length != currentPositions.length || currentKeys.length != totals.length) {
+                return -1;
+            }
+            int mask = currentKeys.length - 1;
+            for(int i = hash & mask, probes = 0; probes < currentKeys.length; i = (i + 1) & mask, probes++) {
+                if(currentPositions[i] == null) {
+                    return -1;
+                }
+                if(currentKeys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldTotals = totals;
+            long[][] oldPositions = positions;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            totals = new long[oldKeys.length * 2];
+            positions = new long[oldKeys.length * 2][];
+            counts = new int[oldKeys.length * 2];
+            for(int i = 0; i < oldKeys.length; i++) {
+                if(oldPositions[i] != null) {
+                    insert(oldKeys[i], ShardedUsageStore.hash(oldKeys[i]) >>> SHARD_BITS, oldPositions[i], oldCounts[i], oldTotals[i]);
+                }
+            }
+        }
+
+        private int insert(long key, int hash, long[] sorted, int count, long total) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while(positions[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            totals[i] = total;
+            counts[i] = count;
+            positions[i] = sorted;
+            return i;
+        }
+    }
+}
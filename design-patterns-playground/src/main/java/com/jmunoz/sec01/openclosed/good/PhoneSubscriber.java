@@ -1,14 +1,19 @@
 package com.jmunoz.sec01.openclosed.good;
 
-import java.util.List;
+import java.time.LocalDateTime;
 
 public class PhoneSubscriber extends Subscriber {
 
     //only for demonstration - open for extension
     @Override
     public double calculateBill() {
-        List<CallHistory.Call> sessions = CallHistory.getCurrentCalls(subscriberId);
-        long totalDuration = sessions.stream().mapToLong(CallHistory.Call::getDuration).sum();
+        long totalDuration = CallHistory.getTotalDuration(subscriberId);
+        return totalDuration*baseRate/100;
+    }
+
+    @Override
+    public double calculateBill(LocalDateTime from, LocalDateTime to) {
+        long totalDuration = CallHistory.getTotalDuration(subscriberId, from, to);
         return totalDuration*baseRate/100;
     }
 
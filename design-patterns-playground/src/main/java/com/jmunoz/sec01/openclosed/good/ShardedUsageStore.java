@@ -0,0 +1,160 @@
+package com.jmunoz.sec01.openclosed.good;
+
+import java.util.concurrent.locks.StampedLock;
+
+//In-memory store, maps subscriber ids to their usage buffers.
+//Subscribers are striped across shards, each one an open-addressing map keyed by the primitive id,
+//so ingest threads only contend when they hit the same shard while a new subscriber is being added.
+class ShardedUsageStore implements UsageStore {
+
+    private static final long[] NO_RECORDS = new long[0];
+
+    private static final int SHARD_BITS = 6;
+
+    private final Shard[] shards = new Shard[1 << SHARD_BITS];
+
+    ShardedUsageStore() {
+        for(int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    @Override
+    public void append(long subscriberId, long begin, long amount) {
+        getOrCreate(subscriberId).append(begin, amount);
+    }
+
+    @Override
+    public long total(long subscriberId) {
+        UsageBuffer buffer = get(subscriberId);
+        return buffer == null ? 0 : buffer.total();
+    }
+
+    @Override
+    public long total(long subscriberId, long from, long to) {
+        UsageBuffer buffer = get(subscriberId);
+        return buffer == null ? 0 : buffer.total(from, to);
+    }
+
+    @Override
+    public long[] snapshot(long subscriberId, long from, long to) {
+        UsageBuffer buffer = get(subscriberId);
+        return buffer == null ? NO_RECORDS : buffer.snapshot(from, to);
+    }
+
+    //Buffer of the subscriber or null if nothing was recorded yet
+    UsageBuffer get(long subscriberId) {
+        int hash = hash(subscriberId);
+        return shardFor(hash).get(subscriberId, hash >>> SHARD_BITS);
+    }
+
+    UsageBuffer getOrCreate(long subscriberId) {
+        int hash = hash(subscriberId);
+        return shardFor(hash).getOrCreate(subscriberId, hash >>> SHARD_BITS);
+    }
+
+    private Shard shardFor(int hash) {
+        return shards[hash & (shards.length - 1)];
+    }
+
+    //murmur3 finalizer, sequential ids must not pile up in the same shard
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static final class Shard {
+
+        private final StampedLock lock = new StampedLock();
+
+        private long[] keys = new long[16];
+
+        private UsageBuffer[] buffers = new UsageBuffer[16];
+
+        private int size;
+
+        UsageBuffer get(long key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            if(stamp != 0) {
+                UsageBuffer found = find(key, hash);
+                if(lock.validate(stamp)) {
+                    return found;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return find(key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        UsageBuffer getOrCreate(long key, int hash) {
+            UsageBuffer found = get(key, hash);
+            if(found != null) {
+                return found;
+            }
+            long stamp = lock.writeLock();
+            try {
+                found = find(key, hash);
+                if(found == null) {
+                    if((size + 1) * 2 > keys.length) {
+                        resize();
+                    }
+                    found = new UsageBuffer();
+                    insert(keys, buffers, key, hash, found);
+                    size++;
+                }
+                return found;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        //May run against a half-resized table during an optimistic read, the stamp validation discards that result
+        private UsageBuffer find(long key, int hash) {
+            long[] currentKeys = keys;
+            UsageBuffer[] currentBuffers = buffers;
+            if(currentKeys.length != currentBuffers.length) {
+                return null;
+            }
+            int mask = currentKeys.length - 1;
+            for(int i = hash & mask, probes = 0; probes < currentKeys.length; i = (i + 1) & mask, probes++) {
+                UsageBuffer buffer = currentBuffers[i];
+                if(buffer == null) {
+                    return null;
+                }
+                if(currentKeys[i] == key) {
+                    return buffer;
+                }
+            }
+            return null;
+        }
+
+        private void resize() {
+            long[] newKeys = new long[keys.length * 2];
+            UsageBuffer[] newBuffers = new UsageBuffer[buffers.length * 2];
+            for(int i = 0; i < keys.length; i++) {
+                if(buffers[i] != null) {
+                    insert(newKeys, newBuffers, keys[i], hash(keys[i]) >>> SHARD_BITS, buffers[i]);
+                }
+            }
+            keys = newKeys;
+            buffers = newBuffers;
+        }
+
+        private static void insert(long[] keys, UsageBuffer[] buffers, long key, int hash, UsageBuffer buffer) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while(buffers[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            buffers[i] = buffer;
+        }
+    }
+}
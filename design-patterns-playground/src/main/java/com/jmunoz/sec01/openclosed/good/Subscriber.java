@@ -1,5 +1,7 @@
 package com.jmunoz.sec01.openclosed.good;
 
+import java.time.LocalDateTime;
+
 //base class - closed for modification
 public abstract class Subscriber {
 	
@@ -44,5 +46,14 @@ public abstract class Subscriber {
 	}
 
 	public abstract double calculateBill(); //extension
+
+	//bills only the usage that began in the billing period [from, to), a null bound leaves that side open.
+	//Subscribers that can't bill by period only support the whole history (both bounds null).
+	public double calculateBill(LocalDateTime from, LocalDateTime to) { //extension
+		if(from == null && to == null) {
+			return calculateBill();
+		}
+		throw new UnsupportedOperationException(getClass().getName() + " can't bill a billing period");
+	}
     
 }
@@ -0,0 +1,195 @@
+package com.jmunoz.sec01.openclosed.good;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+//Usage records (begin as UTC epoch-micros, amount) of a single subscriber, kept sorted by begin.
+//Writers insert under a lock, readers use optimistic reads so they don't wait for writers.
+class UsageBuffer {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private static final long MICROS_PER_SECOND = 1_000_000;
+
+    private static final int NANOS_PER_MICRO = 1_000;
+
+    //slots per record: begin, amount and the running sum of the amounts up to and including the record
+    private static final int STRIDE = 3;
+
+    private final StampedLock lock = new StampedLock();
+
+    private long[] records = new long[INITIAL_CAPACITY * STRIDE];
+
+    private int size;
+
+    //running sum of the amounts, so totals don't need to walk the records
+    private volatile long total;
+
+    //Records usually arrive in begin order and are appended in O(1).
+    //A late record is shifted into place and the running sums after it are recomputed, that costs O(n)
+    //in the records that began after it, so a store fed mostly out of order degrades to quadratic.
+    void append(long begin, long amount) {
+        long stamp = lock.writeLock();
+        try {
+            if(size * STRIDE == records.length) {
+                records = Arrays.copyOf(records, records.length * 2);
+            }
+            int position = size;
+            if(size > 0 && begin < records[(size - 1) * STRIDE]) {
+                position = upperBound(records, size, begin);
+                System.arraycopy(records, position * STRIDE, records, (position + 1) * STRIDE, (size - position) * STRIDE);
+            }
+            records[position * STRIDE] = begin;
+            records[position * STRIDE + 1] = amount;
+            size++;
+            long running = position == 0 ? 0 : records[(position - 1) * STRIDE + 2];
+            for(int i = position; i < size; i++) {
+                running += records[i * STRIDE + 1];
+                records[i * STRIDE + 2] = running;
+            }
+            total = running;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    long total() {
+        return total;
+    }
+
+    //Sum of the amounts of the records with from <= begin < to, two binary searches over the running sums
+    long total(long from, long to) {
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            long[] current = records;
+            long sum = sum(current, Math.min(size, current.length / STRIDE), from, to);
+            if(lock.validate(stamp)) {
+                return sum;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return sum(records, size, from, to);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    //Copy of the begin/amount pairs of every record, two slots per record
+    long[] snapshot() {
+        return snapshot(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    //Copy of the begin/amount pairs of the records with from <= begin < to, two slots per record
+    long[] snapshot(long from, long to) {
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            long[] current = records;
+            long[] copy = copy(current, Math.min(size, current.length / STRIDE), from, to);
+            if(lock.validate(stamp)) {
+                return copy;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return copy(records, size, from, to);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static long sum(long[] records, int size, long from, long to) {
+        int first = lowerBound(records, size, from);
+        int last = Math.max(first, lowerBound(records, size, to));
+        return runningAt(records, last - 1) - runningAt(records, first - 1);
+    }
+
+    private static long runningAt(long[] records, int index) {
+        return index < 0 ? 0 : records[index * STRIDE + 2];
+    }
+
+    private static long[] copy(long[] records, int size, long from, long to) {
+        int first = lowerBound(records, size, from);
+        int last = Math.max(first, lowerBound(records, size, to));
+        long[] pairs = new long[(last - first) * 2];
+        for(int i = first, j = 0; i < last; i++, j += 2) {
+            pairs[j] = records[i * STRIDE];
+            pairs[j + 1] = records[i * STRIDE + 1];
+        }
+        return pairs;
+    }
+
+    //index of the first record with begin >= key
+    private static int lowerBound(long[] records, int size, long key) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(records[middle * STRIDE] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //index of the first record with begin > key
+    private static int upperBound(long[] records, int size, long key) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(records[middle * STRIDE] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //Start of a [from, to) window in epoch-micros, null means no lower bound
+    static long windowFrom(LocalDateTime from) {
+        return from == null ? Long.MIN_VALUE : clampedEpochMicro(from);
+    }
+
+    //End of a [from, to) window in epoch-micros, null means no upper bound
+    static long windowTo(LocalDateTime to) {
+        return to == null ? Long.MAX_VALUE : clampedEpochMicro(to);
+    }
+
+    //A bound past the epoch-micros range, e.g. LocalDateTime.MIN or MAX, is valid: no record can lie beyond it,
+    //so it is clamped to the end of the range instead of overflowing
+    private static long clampedEpochMicro(LocalDateTime bound) {
+        try {
+            return toEpochMicro(bound);
+        } catch (ArithmeticException e) {
+            return bound.getYear() < 1970 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    //Microseconds keep what LocalDateTime.now() gives on common platforms, only the nanoseconds below it are dropped.
+    //Throws ArithmeticException for dates about 292,000 years away from 1970.
+    static long toEpochMicro(LocalDateTime dateTime) {
+        return toEpochMicro(dateTime.toEpochSecond(ZoneOffset.UTC), dateTime.getNano());
+    }
+
+    static long toEpochMicro(long epochSecond, int nano) {
+        return Math.addExact(Math.multiplyExact(epochSecond, MICROS_PER_SECOND), nano / NANOS_PER_MICRO);
+    }
+
+    static long epochSecond(long epochMicro) {
+        return Math.floorDiv(epochMicro, MICROS_PER_SECOND);
+    }
+
+    static int nanoOfSecond(long epochMicro) {
+        return (int) Math.floorMod(epochMicro, MICROS_PER_SECOND) * NANOS_PER_MICRO;
+    }
+
+    static LocalDateTime toDateTime(long epochMicro) {
+        return LocalDateTime.ofEpochSecond(epochSecond(epochMicro), nanoOfSecond(epochMicro), ZoneOffset.UTC);
+    }
+}
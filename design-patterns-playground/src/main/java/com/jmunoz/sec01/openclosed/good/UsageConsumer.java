@@ -0,0 +1,9 @@
+package com.jmunoz.sec01.openclosed.good;
+
+//Receives usage records as primitives, begin is UTC epoch-micros
+@FunctionalInterface
+public interface UsageConsumer {
+
+    public void accept(long begin, long amount);
+
+}
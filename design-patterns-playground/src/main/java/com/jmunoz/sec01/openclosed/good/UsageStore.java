@@ -0,0 +1,21 @@
+package com.jmunoz.sec01.openclosed.good;
+
+//Where CallHistory and InternetSessionHistory keep their records.
+//Begins are UTC epoch-micros, windows are half-open [from, to).
+public interface UsageStore {
+
+    //a new, empty in-memory store
+    public static UsageStore inMemory() {
+        return new ShardedUsageStore();
+    }
+
+    public void append(long subscriberId, long begin, long amount);
+
+    public long total(long subscriberId);
+
+    public long total(long subscriberId, long from, long to);
+
+    //begin/amount pairs of the records in the window sorted by begin, two slots per record
+    public long[] snapshot(long subscriberId, long from, long to);
+
+}
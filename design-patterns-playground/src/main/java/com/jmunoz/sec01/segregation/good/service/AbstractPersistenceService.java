@@ -0,0 +1,67 @@
+package com.jmunoz.sec01.segregation.good.service;
+
+import com.jmunoz.sec01.segregation.good.entity.Entity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+//PersistenceService backed by an EntityStore, concrete services only choose the store.
+//findAllById keeps the default one lookup per id, store lookups are optimistic reads that take no lock.
+public abstract class AbstractPersistenceService<T extends Entity> implements PersistenceService<T> {
+
+	private final EntityStore<T> store;
+
+	protected AbstractPersistenceService(EntityStore<T> store) {
+		this.store = store;
+	}
+
+	@Override
+	public void save(T entity) {
+		store.put(idOf(entity), entity);
+	}
+
+	@Override
+	public void delete(T entity) {
+		store.remove(idOf(entity));
+	}
+
+	@Override
+	public T findById(Long id) {
+		return id == null ? null : store.get(id);
+	}
+
+	//Every id is checked before anything is stored, then each stripe of the store is locked once
+	@Override
+	public void saveAll(Collection<? extends T> entities) {
+		List<T> batch = new ArrayList<>(entities);
+		store.putAll(idsOf(batch), batch);
+	}
+
+	@Override
+	public void deleteAll(Collection<? extends T> entities) {
+		store.removeAll(idsOf(entities));
+	}
+
+	protected EntityStore<T> getStore() {
+		return store;
+	}
+
+	//The store is keyed by the primitive id, an entity without id can't be stored
+	private static long idOf(Entity entity) {
+		Long id = entity.getId();
+		if(id == null) {
+			throw new IllegalArgumentException("Entity has no id");
+		}
+		return id;
+	}
+
+	private static long[] idsOf(Collection<? extends Entity> entities) {
+		long[] ids = new long[entities.size()];
+		int i = 0;
+		for(Entity entity : entities) {
+			ids[i++] = idOf(entity);
+		}
+		return ids;
+	}
+}
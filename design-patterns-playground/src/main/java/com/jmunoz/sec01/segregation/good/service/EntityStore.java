@@ -0,0 +1,347 @@
+package com.jmunoz.sec01.segregation.good.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import com.jmunoz.sec01.segregation.good.entity.Entity;
+
+//In-memory entities keyed by their primitive id.
+//Ids are striped across 64 stripes, each one an open-addressing map with its own lock:
+//writers only contend when they hit the same stripe and readers use optimistic reads, so they don't lock at all
+//unless a writer changed the stripe meanwhile.
+public class EntityStore<T extends Entity> {
+
+	//Keeps secondary indexes in step with the store. Called under the stripe lock of the id,
+	//so the changes of one id reach the listener in the same order they are applied.
+	//Called before the change is applied: if the listener throws, the store is left as it was.
+	public interface Listener<T> {
+
+		//previous is null if the id was not stored
+		void saved(long id, T previous, T current);
+
+		void removed(long id, T removed);
+	}
+
+	private static final int STRIPE_BITS = 6;
+
+	private final Stripe<T>[] stripes;
+
+	public EntityStore() {
+		this(null);
+	}
+
+	//Generic arrays can't be created, so the array is raw and filled with Stripe<T> only
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public EntityStore(Listener<T> listener) {
+		stripes = new Stripe[1 << STRIPE_BITS];
+		for(int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe<>(listener);
+		}
+	}
+
+	public T get(long id) {
+		int hash = hash(id);
+		return stripeFor(hash).get(id, hash >>> STRIPE_BITS);
+	}
+
+	//Stores the entity under the id, returns the one it replaced or null
+	public T put(long id, T entity) {
+		if(entity == null) {
+			throw new NullPointerException("entity");
+		}
+		int hash = hash(id);
+		return stripeFor(hash).put(id, hash >>> STRIPE_BITS, entity);
+	}
+
+	//Removes the entity stored under the id, returns it or null
+	public T remove(long id) {
+		int hash = hash(id);
+		return stripeFor(hash).remove(id, hash >>> STRIPE_BITS);
+	}
+
+	//Stores entities.get(i) under ids[i]. Each stripe the batch touches is write-locked once, in stripe order
+	//so batches can't deadlock, and stays locked until the whole batch is applied in batch order.
+	//A repeated id ends up with its last entity, as with one put per entity.
+	public void putAll(long[] ids, List<? extends T> entities) {
+		if(ids.length != entities.size()) {
+			throw new IllegalArgumentException("ids and entities must have the same size");
+		}
+		for(T entity : entities) {
+			if(entity == null) {
+				throw new NullPointerException("entity");
+			}
+		}
+		int[] hashes = hashes(ids);
+		long[] stamps = lockAll(hashes);
+		try {
+			for(int i = 0; i < ids.length; i++) {
+				stripeFor(hashes[i]).putLocked(ids[i], hashes[i] >>> STRIPE_BITS, entities.get(i));
+			}
+		} finally {
+			unlockAll(stamps);
+		}
+	}
+
+	//Removes the entities stored under the ids, locking each stripe once like putAll
+	public void removeAll(long[] ids) {
+		int[] hashes = hashes(ids);
+		long[] stamps = lockAll(hashes);
+		try {
+			for(int i = 0; i < ids.length; i++) {
+				stripeFor(hashes[i]).removeLocked(ids[i], hashes[i] >>> STRIPE_BITS);
+			}
+		} finally {
+			unlockAll(stamps);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for(Stripe<T> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	//Calls the action for every entity, one stripe at a time. The action runs outside the locks,
+	//so it sees each stripe as it was when it was copied.
+	public void forEach(Consumer<? super T> action) {
+		List<T> copy = new ArrayList<>();
+		for(Stripe<T> stripe : stripes) {
+			copy.clear();
+			stripe.copyTo(copy);
+			copy.forEach(action);
+		}
+	}
+
+	private Stripe<T> stripeFor(int hash) {
+		return stripes[hash & (stripes.length - 1)];
+	}
+
+	//murmur3 finalizer, sequential ids must not pile up in the same stripe
+	static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private static int[] hashes(long[] ids) {
+		int[] hashes = new int[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			hashes[i] = hash(ids[i]);
+		}
+		return hashes;
+	}
+
+	//Write stamp of every stripe the hashes fall in, 0 for the others
+	private long[] lockAll(int[] hashes) {
+		boolean[] touched = new boolean[stripes.length];
+		for(int hash : hashes) {
+			touched[hash & (stripes.length - 1)] = true;
+		}
+		long[] stamps = new long[stripes.length];
+		for(int s = 0; s < stripes.length; s++) {
+			if(touched[s]) {
+				stamps[s] = stripes[s].lock.writeLock();
+			}
+		}
+		return stamps;
+	}
+
+	private void unlockAll(long[] stamps) {
+		for(int s = 0; s < stripes.length; s++) {
+			if(stamps[s] != 0) {
+				stripes[s].lock.unlockWrite(stamps[s]);
+			}
+		}
+	}
+
+	//Linear probing, a slot is taken when its entity is not null
+	private static final class Stripe<T> {
+
+		private final StampedLock lock = new StampedLock();
+
+		private final Listener<T> listener;
+
+		private long[] keys = new long[16];
+
+		private Object[] entities = new Object[16];
+
+		private int size;
+
+		Stripe(Listener<T> listener) {
+			this.listener = listener;
+		}
+
+		T get(long key, int hash) {
+			long stamp = lock.tryOptimisticRead();
+			if(stamp != 0) {
+				T found = find(key, hash);
+				if(lock.validate(stamp)) {
+					return found;
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return find(key, hash);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		T put(long key, int hash, T entity) {
+			long stamp = lock.writeLock();
+			try {
+				return putLocked(key, hash, entity);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		T remove(long key, int hash) {
+			long stamp = lock.writeLock();
+			try {
+				return removeLocked(key, hash);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		//Caller holds the write lock
+		T putLocked(long key, int hash, T entity) {
+			int slot = slotOf(keys, entities, key, hash);
+			if(entities[slot] != null) {
+				T previous = entityAt(slot);
+				if(listener != null) {
+					listener.saved(key, previous, entity);
+				}
+				entities[slot] = entity;
+				return previous;
+			}
+			if(listener != null) {
+				listener.saved(key, null, entity);
+			}
+			if((size + 1) * 2 > keys.length) {
+				resize();
+				slot = slotOf(keys, entities, key, hash);
+			}
+			keys[slot] = key;
+			entities[slot] = entity;
+			size++;
+			return null;
+		}
+
+		//Caller holds the write lock
+		T removeLocked(long key, int hash) {
+			int slot = slotOf(keys, entities, key, hash);
+			if(entities[slot] == null) {
+				return null;
+			}
+			T removed = entityAt(slot);
+			if(listener != null) {
+				listener.removed(key, removed);
+			}
+			deleteSlot(slot);
+			size--;
+			return removed;
+		}
+
+		int size() {
+			long stamp = lock.tryOptimisticRead();
+			int current = size;
+			if(stamp != 0 && lock.validate(stamp)) {
+				return current;
+			}
+			stamp = lock.readLock();
+			try {
+				return size;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		void copyTo(List<T> target) {
+			long stamp = lock.readLock();
+			try {
+				for(int i = 0; i < entities.length; i++) {
+					if(entities[i] != null) {
+						target.add(entityAt(i));
+					}
+				}
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		//May run against a half-resized or half-shifted table during an optimistic read, the stamp validation discards that result
+		@SuppressWarnings("unchecked")
+		private T find(long key, int hash) {
+			long[] currentKeys = keys;
+			Object[] currentEntities = entities;
+			if(currentKeys.length != currentEntities.length) {
+				return null;
+			}
+			int mask = currentKeys.length - 1;
+			for(int i = hash & mask, probes = 0; probes < currentKeys.length; i = (i + 1) & mask, probes++) {
+				Object entity = currentEntities[i];
+				if(entity == null) {
+					return null;
+				}
+				if(currentKeys[i] == key) {
+					return (T) entity;
+				}
+			}
+			return null;
+		}
+
+		//Slot holding the key, or the free slot where it would go
+		private static int slotOf(long[] keys, Object[] entities, long key, int hash) {
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			while(entities[i] != null && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		//Backward-shift deletion: later entries of the probe run move up so lookups never need tombstones
+		private void deleteSlot(int slot) {
+			int mask = keys.length - 1;
+			int free = slot;
+			for(int i = (slot + 1) & mask; entities[i] != null; i = (i + 1) & mask) {
+				int home = hash(keys[i]) >>> STRIPE_BITS & mask;
+				//the entry can move to the free slot only if that slot is not before its home in the probe run
+				if(((i - home) & mask) >= ((i - free) & mask)) {
+					keys[free] = keys[i];
+					entities[free] = entities[i];
+					free = i;
+				}
+			}
+			entities[free] = null;
+		}
+
+		private void resize() {
+			long[] newKeys = new long[keys.length * 2];
+			Object[] newEntities = new Object[entities.length * 2];
+			for(int i = 0; i < keys.length; i++) {
+				if(entities[i] != null) {
+					int slot = slotOf(newKeys, newEntities, keys[i], hash(keys[i]) >>> STRIPE_BITS);
+					newKeys[slot] = keys[i];
+					newEntities[slot] = entities[i];
+				}
+			}
+			keys = newKeys;
+			entities = newEntities;
+		}
+
+		@SuppressWarnings("unchecked")
+		private T entityAt(int slot) {
+			return (T) entities[slot];
+		}
+	}
+}
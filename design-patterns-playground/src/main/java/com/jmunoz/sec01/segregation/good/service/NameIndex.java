@@ -0,0 +1,136 @@
+package com.jmunoz.sec01.segregation.good.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.jmunoz.sec01.segregation.good.entity.User;
+
+//Users by case-folded name, kept up to date by the user store.
+//Exact lookups are a hash lookup, the sorted set of names answers prefix searches.
+//A name is indexed as it was when the user was saved, renaming a user needs a new save.
+class NameIndex implements EntityStore.Listener<User> {
+
+	private final Map<String, Set<User>> usersByName = new ConcurrentHashMap<>();
+
+	//names with at least one user, only changed inside the usersByName compute of that name so both agree
+	private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+
+	//name each id is indexed under, the saved instance may have been renamed since
+	private final Map<Long, String> nameOfId = new ConcurrentHashMap<>();
+
+	@Override
+	public void saved(long id, User previous, User current) {
+		String name = fold(current.getName());
+		String old = name == null ? nameOfId.remove(id) : nameOfId.put(id, name);
+		if(old != null && old.equals(name)) {
+			//same name, swap the instance in place so the name never leaves the sorted set
+			if(previous != current) {
+				usersByName.compute(name, (k, users) -> {
+					if(users == null) {
+						users = ConcurrentHashMap.newKeySet();
+						names.add(k);
+					}
+					users.remove(previous);
+					users.add(current);
+					return users;
+				});
+			}
+			return;
+		}
+		if(old != null) {
+			unindex(old, previous);
+		}
+		if(name != null) {
+			usersByName.compute(name, (k, users) -> {
+				if(users == null) {
+					users = ConcurrentHashMap.newKeySet();
+					names.add(k);
+				}
+				users.add(current);
+				return users;
+			});
+		}
+	}
+
+	@Override
+	public void removed(long id, User removed) {
+		String old = nameOfId.remove(id);
+		if(old != null) {
+			unindex(old, removed);
+		}
+	}
+
+	List<User> find(String name) {
+		String key = fold(name);
+		Set<User> users = key == null ? null : usersByName.get(key);
+		return users == null ? new ArrayList<>() : new ArrayList<>(users);
+	}
+
+	//Users whose name starts with the prefix, in name order, at most limit of them
+	List<User> findByPrefix(String prefix, int limit) {
+		List<User> found = new ArrayList<>();
+		String key = fold(prefix);
+		if(key == null) {
+			return found;
+		}
+		for(String name : names.tailSet(key)) {
+			if(found.size() >= limit || !name.startsWith(key)) {
+				break;
+			}
+			Set<User> users = usersByName.get(name);
+			if(users != null) {
+				for(User user : users) {
+					if(found.size() >= limit) {
+						break;
+					}
+					found.add(user);
+				}
+			}
+		}
+		return found;
+	}
+
+	private void unindex(String name, User user) {
+		usersByName.computeIfPresent(name, (k, users) -> {
+			users.remove(user);
+			if(users.isEmpty()) {
+				names.remove(k);
+				return null;
+			}
+			return users;
+		});
+	}
+
+	//Same folding as String.equalsIgnoreCase: upper case then lower case, code point by code point
+	static String fold(String name) {
+		if(name == null) {
+			return null;
+		}
+		int length = name.length();
+		int i = 0;
+		while(i < length) {
+			char c = name.charAt(i);
+			if(c >= 'A' && c <= 'Z' || c >= 0x80) {
+				break;
+			}
+			i++;
+		}
+		if(i == length) {
+			//lower case ASCII, already folded
+			return name;
+		}
+		StringBuilder folded = new StringBuilder(length);
+		folded.append(name, 0, i);
+		while(i < length) {
+			int codePoint = name.codePointAt(i);
+			folded.appendCodePoint(Character.toLowerCase(Character.toUpperCase(codePoint)));
+			i += Character.charCount(codePoint);
+		}
+		return folded.toString();
+	}
+}
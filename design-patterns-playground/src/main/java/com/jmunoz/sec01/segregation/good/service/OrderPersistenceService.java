@@ -2,31 +2,27 @@ package com.jmunoz.sec01.segregation.good.service;
 
 import com.jmunoz.sec01.segregation.good.entity.Order;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
 
-public class OrderPersistenceService implements PersistenceService<Order>{
+public class OrderPersistenceService extends AbstractPersistenceService<Order>{
 	
-	private static final Map<Long, Order> ORDERS = new HashMap<>();
+	private static final OrderTimeIndex PLACED_ON = new OrderTimeIndex(Duration.ofHours(1));
 	
-	@Override
-	public void save(Order entity) {
-		synchronized (ORDERS) {
-			ORDERS.put(entity.getId(), entity);
-		}
+	private static final EntityStore<Order> ORDERS = new EntityStore<>(PLACED_ON);
+	
+	public OrderPersistenceService() {
+		super(ORDERS);
 	}
-
-	@Override
-	public void delete(Order entity) {
-		synchronized (ORDERS) {
-			ORDERS.remove(entity.getId());
-		}
+	
+	//Orders placed in [from, to), oldest first
+	public List<Order> findPlacedBetween(LocalDateTime from, LocalDateTime to) {
+		return PLACED_ON.findPlacedBetween(from, to);
 	}
-
-	@Override
-	public Order findById(Long id) {
-		synchronized (ORDERS) {
-			return ORDERS.get(id);
-		}
+	
+	//Total value of the orders placed in [from, to), from hourly pre-aggregated sums
+	public double revenueBetween(LocalDateTime from, LocalDateTime to) {
+		return PLACED_ON.revenueBetween(from, to);
 	}
 }
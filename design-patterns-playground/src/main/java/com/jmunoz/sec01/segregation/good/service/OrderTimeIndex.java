@@ -0,0 +1,293 @@
+package com.jmunoz.sec01.segregation.good.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+import com.jmunoz.sec01.segregation.good.entity.Order;
+
+//Orders by orderPlacedOn (UTC), kept up to date by the order store.
+//A skip list ordered by (placedOn, id) answers range scans, and the totalValue of every order is also
+//added to a fixed-width time bucket in a sparse segment tree, so the revenue of a window costs two prefix sums
+//plus a scan of the two partial buckets at its edges.
+//Removing an order recomputes its bucket from the orders left in it instead of subtracting, and every node above
+//a bucket is recomputed from its children, so deleted orders leave no rounding error behind.
+//An order is indexed as it was when saved, changing its date or value needs a new save.
+//Queries running next to writers are weakly consistent, like the concurrent collections underneath.
+class OrderTimeIndex implements EntityStore.Listener<Order> {
+
+	private static final long MIN_SECOND = LocalDateTime.MIN.toEpochSecond(ZoneOffset.UTC);
+
+	private final NavigableMap<TimeKey, Order> ordersByTime = new ConcurrentSkipListMap<>();
+
+	//key each id is indexed under, with the value it added to its bucket
+	private final Map<Long, TimeKey> keyOfId = new ConcurrentHashMap<>();
+
+	private final long bucketSeconds;
+
+	private final RevenueBuckets revenue = new RevenueBuckets();
+
+	//Writers are serialized, so a bucket recomputed from its orders can't miss or count twice a concurrent save
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	OrderTimeIndex(Duration bucketWidth) {
+		if(bucketWidth.getSeconds() <= 0 || bucketWidth.getNano() != 0) {
+			throw new IllegalArgumentException("bucketWidth must be a whole, positive number of seconds");
+		}
+		this.bucketSeconds = bucketWidth.getSeconds();
+	}
+
+	@Override
+	public void saved(long id, Order previous, Order current) {
+		LocalDateTime placedOn = current.getOrderPlacedOn();
+		TimeKey key = placedOn == null ? null : new TimeKey(placedOn, id, current.getTotalValue());
+		writeLock.lock();
+		try {
+			TimeKey old = key == null ? keyOfId.remove(id) : keyOfId.put(id, key);
+			if(old != null && key != null && previous == current && old.compareTo(key) == 0 && old.value == key.value) {
+				//saved again unchanged
+				return;
+			}
+			if(old != null) {
+				unindex(old);
+			}
+			if(key != null) {
+				ordersByTime.put(key, current);
+				revenue.add(bucketOf(placedOn), key.value);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void removed(long id, Order removed) {
+		writeLock.lock();
+		try {
+			TimeKey old = keyOfId.remove(id);
+			if(old != null) {
+				unindex(old);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	//Orders placed in [from, to), oldest first
+	List<Order> findPlacedBetween(LocalDateTime from, LocalDateTime to) {
+		if(!from.isBefore(to)) {
+			return new ArrayList<>();
+		}
+		return new ArrayList<>(range(from, to).values());
+	}
+
+	//Sum of the totalValue of the orders placed in [from, to)
+	double revenueBetween(LocalDateTime from, LocalDateTime to) {
+		if(!from.isBefore(to)) {
+			return 0;
+		}
+		long first = bucketOf(from);
+		long last = bucketOf(to);
+		if(first == last) {
+			return scan(from, to);
+		}
+		//partial bucket at each edge, whole buckets in between
+		return scan(from, startOf(first + 1)) + revenue.sum(first + 1, last) + scan(startOf(last), to);
+	}
+
+	private void unindex(TimeKey key) {
+		ordersByTime.remove(key);
+		long bucket = bucketOf(key.placedOn);
+		revenue.set(bucket, bucketRevenue(bucket));
+	}
+
+	//Sum of the totalValue of the orders left in the bucket, in the order the skip list keeps them
+	private double bucketRevenue(long bucket) {
+		double sum = 0;
+		for(TimeKey key : ordersByTime.tailMap(new TimeKey(startOf(bucket), Long.MIN_VALUE, 0)).keySet()) {
+			if(bucketOf(key.placedOn) != bucket) {
+				break;
+			}
+			sum += key.value;
+		}
+		return sum;
+	}
+
+	private NavigableMap<TimeKey, Order> range(LocalDateTime from, LocalDateTime to) {
+		return ordersByTime.subMap(new TimeKey(from, Long.MIN_VALUE, 0), true, new TimeKey(to, Long.MIN_VALUE, 0), false);
+	}
+
+	private double scan(LocalDateTime from, LocalDateTime to) {
+		double sum = 0;
+		if(from.isBefore(to)) {
+			for(TimeKey key : range(from, to).keySet()) {
+				sum += key.value;
+			}
+		}
+		return sum;
+	}
+
+	private long bucketOf(LocalDateTime dateTime) {
+		return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), bucketSeconds);
+	}
+
+	//The first bucket may start before LocalDateTime.MIN, it is clamped to it
+	private LocalDateTime startOf(long bucket) {
+		long seconds = bucket * bucketSeconds;
+		return seconds <= MIN_SECOND ? LocalDateTime.MIN : LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+	}
+
+	private static final class TimeKey implements Comparable<TimeKey> {
+
+		private final LocalDateTime placedOn;
+
+		private final long id;
+
+		//totalValue when indexed, not part of the ordering
+		private final double value;
+
+		TimeKey(LocalDateTime placedOn, long id, double value) {
+			this.placedOn = placedOn;
+			this.id = id;
+			this.value = value;
+		}
+
+		@Override
+		public int compareTo(TimeKey other) {
+			int byTime = placedOn.compareTo(other.placedOn);
+			return byTime != 0 ? byTime : Long.compare(id, other.id);
+		}
+	}
+
+	//Revenue per bucket in a sparse segment tree over the whole range of bucket numbers.
+	//Each node sums a power-of-two range of buckets and only the nodes on the path to a bucket that got an order
+	//exist, so memory grows with the number of buckets used (at most 64 nodes each, shared between neighbours)
+	//and not with the span between the oldest and the newest order. Updates and prefix sums walk 64 levels.
+	//Only the buckets are updated in place, the nodes above are recomputed from their children on the way back up,
+	//so the tree is always the sum of its buckets and a bucket set back to 0 leaves no trace in it.
+	private static final class RevenueBuckets {
+
+		private static final int LEVELS = 64;
+
+		private final StampedLock lock = new StampedLock();
+
+		//node 0 is the root, a child index of 0 means the child doesn't exist
+		private int[] left = new int[64];
+
+		private int[] right = new int[64];
+
+		private double[] sums = new double[64];
+
+		private int nodes = 1;
+
+		//nodes from the root down to the bucket of the last update, only used under the write lock
+		private final int[] path = new int[LEVELS + 1];
+
+		void add(long bucket, double value) {
+			update(bucket, value, false);
+		}
+
+		void set(long bucket, double value) {
+			update(bucket, value, true);
+		}
+
+		private void update(long bucket, double value, boolean replace) {
+			long stamp = lock.writeLock();
+			try {
+				long key = bucket ^ Long.MIN_VALUE;
+				int node = 0;
+				path[0] = node;
+				for(int level = LEVELS - 1; level >= 0; level--) {
+					boolean high = (key >>> level & 1) != 0;
+					int child = high ? right[node] : left[node];
+					if(child == 0) {
+						child = newNode();
+						if(high) {
+							right[node] = child;
+						} else {
+							left[node] = child;
+						}
+					}
+					node = child;
+					path[LEVELS - level] = node;
+				}
+				sums[node] = replace ? value : sums[node] + value;
+				for(int depth = LEVELS - 1; depth >= 0; depth--) {
+					int parent = path[depth];
+					sums[parent] = sumOf(left[parent]) + sumOf(right[parent]);
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		private double sumOf(int node) {
+			return node == 0 ? 0 : sums[node];
+		}
+
+		//Sum of the buckets in [first, last)
+		double sum(long first, long last) {
+			if(first >= last) {
+				return 0;
+			}
+			long stamp = lock.tryOptimisticRead();
+			if(stamp != 0) {
+				double sum = below(last) - below(first);
+				if(lock.validate(stamp)) {
+					return sum;
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return below(last) - below(first);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		//Sum of every bucket before the given one: going down towards it, every left sibling we pass is before it.
+		//Only reads the fields once each, it may run against a tree being grown during an optimistic read.
+		private double below(long bucket) {
+			int[] currentLeft = left;
+			int[] currentRight = right;
+			double[] currentSums = sums;
+			int length = Math.min(currentSums.length, Math.min(currentLeft.length, currentRight.length));
+			long key = bucket ^ Long.MIN_VALUE;
+			double sum = 0;
+			int node = 0;
+			for(int level = LEVELS - 1; level >= 0 && node < length; level--) {
+				if((key >>> level & 1) != 0) {
+					int before = currentLeft[node];
+					if(before != 0 && before < length) {
+						sum += currentSums[before];
+					}
+					node = currentRight[node];
+				} else {
+					node = currentLeft[node];
+				}
+				if(node == 0) {
+					break;
+				}
+			}
+			return sum;
+		}
+
+		private int newNode() {
+			if(nodes == sums.length) {
+				left = Arrays.copyOf(left, nodes * 2);
+				right = Arrays.copyOf(right, nodes * 2);
+				sums = Arrays.copyOf(sums, nodes * 2);
+			}
+			return nodes++;
+		}
+	}
+}
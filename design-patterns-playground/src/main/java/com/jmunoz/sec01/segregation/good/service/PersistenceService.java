@@ -2,6 +2,10 @@ package com.jmunoz.sec01.segregation.good.service;
 
 import com.jmunoz.sec01.segregation.good.entity.Entity;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 //common interface to be implemented by all persistence services.
 public interface PersistenceService<T extends Entity> {
 
@@ -11,4 +15,29 @@ public interface PersistenceService<T extends Entity> {
 	
 	public T findById(Long id);
 	
+	//Batch versions, one call per entity by default. Implementations can do a batch in fewer steps.
+	public default void saveAll(Collection<? extends T> entities) {
+		for(T entity : entities) {
+			save(entity);
+		}
+	}
+	
+	public default void deleteAll(Collection<? extends T> entities) {
+		for(T entity : entities) {
+			delete(entity);
+		}
+	}
+	
+	//Entities found, in the order of the ids. Ids without entity are skipped.
+	public default List<T> findAllById(Collection<Long> ids) {
+		List<T> found = new ArrayList<>();
+		for(Long id : ids) {
+			T entity = findById(id);
+			if(entity != null) {
+				found.add(entity);
+			}
+		}
+		return found;
+	}
+	
 }
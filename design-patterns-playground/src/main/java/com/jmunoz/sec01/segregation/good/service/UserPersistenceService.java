@@ -2,41 +2,27 @@ package com.jmunoz.sec01.segregation.good.service;
 
 import com.jmunoz.sec01.segregation.good.entity.User;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 //Stores User entities
-public class UserPersistenceService implements PersistenceService<User>{
+public class UserPersistenceService extends AbstractPersistenceService<User>{
 	
-	private static final Map<Long, User> USERS = new HashMap<>();
+	private static final NameIndex NAMES = new NameIndex();
 	
-	@Override
-	public void save(User entity) {
-		synchronized (USERS) {
-			USERS.put(entity.getId(), entity);
-		}
-	}
-
-	@Override
-	public void delete(User entity) {
-		synchronized (USERS) {
-			USERS.remove(entity.getId());
-		}
-	}
-
-	@Override
-	public User findById(Long id) {
-		synchronized (USERS) {
-			return USERS.get(id);
-		}
+	private static final EntityStore<User> USERS = new EntityStore<>(NAMES);
+	
+	public UserPersistenceService() {
+		super(USERS);
 	}
 	
+	//Case insensitive, answered from the name index without scanning the users
 	public List<User> findByName(String name) {
-		synchronized (USERS) {
-			return USERS.values().stream().filter(u->u.getName().equalsIgnoreCase(name)).collect(Collectors.toList());
-		}
+		return NAMES.find(name);
+	}
+	
+	//Users whose name starts with the prefix, case insensitive and in name order, for type-ahead
+	public List<User> findByNamePrefix(String prefix, int limit) {
+		return NAMES.findByPrefix(prefix, limit);
 	}
 
 }
@@ -0,0 +1,65 @@
+package com.jmunoz.sec01.singleresp.good;
+
+import java.util.Arrays;
+
+//Outcome of a bulk import, counts per kind of line and the numbers of the first failed lines
+public class ImportResult {
+
+    //failed line numbers kept, so a broken file can't make the result grow without bound
+    private static final int MAX_FAILED_LINES = 100;
+
+    private long created;
+
+    private long invalid;
+
+    private long malformed;
+
+    private long[] failedLines = new long[0];
+
+    void created() {
+        created++;
+    }
+
+    //parsed, but rejected by UserValidator
+    void invalid(long lineNumber) {
+        invalid++;
+        failed(lineNumber);
+    }
+
+    //not a User JSON document
+    void malformed(long lineNumber) {
+        malformed++;
+        failed(lineNumber);
+    }
+
+    private void failed(long lineNumber) {
+        if(failedLines.length < MAX_FAILED_LINES) {
+            failedLines = Arrays.copyOf(failedLines, failedLines.length + 1);
+            failedLines[failedLines.length - 1] = lineNumber;
+        }
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    public long getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * @return the 1-based numbers of the first failed lines, at most 100
+     */
+    public long[] getFailedLines() {
+        return failedLines.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "ImportResult [created=" + created + ", invalid=" + invalid + ", malformed=" + malformed + "]";
+    }
+}
@@ -1,22 +1,143 @@
 package com.jmunoz.sec01.singleresp.good;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 //Stores data in memory
+//Users are striped across shards by name, each shard with its own lock.
+//The email and address indexes are updated while the shard lock of the user is held.
 public class Store {
 
-    private static final Map<String, User> STORAGE = new HashMap<>();
+    private static final int SHARD_COUNT = 32;
+
+    private static final Shard[] SHARDS = new Shard[SHARD_COUNT];
+
+    private static final Map<String, Set<User>> BY_EMAIL = new ConcurrentHashMap<>();
+
+    private static final Map<String, Set<User>> BY_ADDRESS = new ConcurrentHashMap<>();
+
+    static {
+        for(int i = 0; i < SHARD_COUNT; i++) {
+            SHARDS[i] = new Shard();
+        }
+    }
 
     public void store(User user) {
-        synchronized(STORAGE) {
-            STORAGE.put(user.getName(), user);
+        Shard shard = shardFor(user.getName());
+        synchronized(shard) {
+            shard.put(user);
+        }
+    }
+
+    //Takes each shard lock once for the whole batch
+    public void storeAll(Collection<User> users) {
+        List<List<User>> batches = new ArrayList<>(SHARD_COUNT);
+        for(int i = 0; i < SHARD_COUNT; i++) {
+            batches.add(new ArrayList<>());
+        }
+        for(User user : users) {
+            batches.get(shardIndex(user.getName())).add(user);
+        }
+        for(int i = 0; i < SHARD_COUNT; i++) {
+            List<User> batch = batches.get(i);
+            if(batch.isEmpty()) {
+                continue;
+            }
+            Shard shard = SHARDS[i];
+            synchronized(shard) {
+                for(User user : batch) {
+                    shard.put(user);
+                }
+            }
         }
     }
 
     public User getUser(String name) {
-        synchronized(STORAGE) {
-            return STORAGE.get(name);
+        Shard shard = shardFor(name);
+        synchronized(shard) {
+            Entry entry = shard.users.get(name);
+            return entry == null ? null : entry.user;
+        }
+    }
+
+    public List<User> findByEmail(String email) {
+        return lookup(BY_EMAIL, email);
+    }
+
+    public List<User> findByAddress(String address) {
+        return lookup(BY_ADDRESS, address);
+    }
+
+    private static List<User> lookup(Map<String, Set<User>> index, String key) {
+        Set<User> users = key == null ? null : index.get(key);
+        return users == null ? List.of() : new ArrayList<>(users);
+    }
+
+    private static Shard shardFor(String name) {
+        return SHARDS[shardIndex(name)];
+    }
+
+    private static int shardIndex(String name) {
+        int hash = name == null ? 0 : name.hashCode();
+        return (hash ^ (hash >>> 16)) & (SHARD_COUNT - 1);
+    }
+
+    private static void index(Map<String, Set<User>> index, String key, User user) {
+        if(key != null) {
+            index.compute(key, (k, users) -> {
+                Set<User> set = users == null ? ConcurrentHashMap.newKeySet() : users;
+                set.add(user);
+                return set;
+            });
+        }
+    }
+
+    private static void unindex(Map<String, Set<User>> index, String key, User user) {
+        if(key != null) {
+            index.computeIfPresent(key, (k, users) -> {
+                users.remove(user);
+                return users.isEmpty() ? null : users;
+            });
+        }
+    }
+
+    private static final class Shard {
+
+        private final Map<String, Entry> users = new HashMap<>();
+
+        //Caller holds the shard lock.
+        //The previous entry is unindexed with the keys it was indexed under: when the same instance is changed
+        //and stored again, its getters already return the new email and address.
+        void put(User user) {
+            Entry entry = new Entry(user);
+            Entry previous = users.put(user.getName(), entry);
+            if(previous != null) {
+                unindex(BY_EMAIL, previous.email, previous.user);
+                unindex(BY_ADDRESS, previous.address, previous.user);
+            }
+            index(BY_EMAIL, entry.email, user);
+            index(BY_ADDRESS, entry.address, user);
+        }
+    }
+
+    //A stored user with the email and address it is indexed under
+    private static final class Entry {
+
+        private final User user;
+
+        private final String email;
+
+        private final String address;
+
+        Entry(User user) {
+            this.user = user;
+            this.email = user.getEmail();
+            this.address = user.getAddress();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,20 +1,36 @@
 package com.jmunoz.sec01.singleresp.good;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 
 // Handles incoming JSON requests that work on User
 public class UserController {
 
     private final UserPersistenceService persistenceService = new UserPersistenceService();
+
+    private final UserValidator validator = new UserValidator();
+
+    //parse with the JsonParser fast path instead of data binding
+    private final boolean streaming;
+
+    public UserController() {
+        this(false);
+    }
+
+    public UserController(boolean streaming) {
+        this.streaming = streaming;
+    }
     
     //Create a new user
     public String createUser(String userJson) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        User user = mapper.readValue(userJson, User.class);
+        User user = parse(userJson);
 
-        var validator = new UserValidator();
         var isValid = validator.validateUser(user);
 
         if(!isValid) {
@@ -25,4 +41,43 @@ public class UserController {
         
         return "SUCCESS";
     }
+
+    //Create one user per line of newline-delimited JSON (UTF-8)
+    public ImportResult createUsers(InputStream ndjson) throws IOException {
+        return createUsers(new InputStreamReader(ndjson, StandardCharsets.UTF_8));
+    }
+
+    //Create one user per line of newline-delimited JSON.
+    //Lines are parsed, validated and saved one at a time, so only the current line is held in memory.
+    //A bad line is counted and skipped, it doesn't stop the import.
+    public ImportResult createUsers(Reader ndjson) throws IOException {
+        BufferedReader reader = ndjson instanceof BufferedReader buffered ? buffered : new BufferedReader(ndjson);
+        ImportResult result = new ImportResult();
+        long lineNumber = 0;
+        String line;
+        while((line = reader.readLine()) != null) {
+            lineNumber++;
+            if(line.isBlank()) {
+                continue;
+            }
+            User user;
+            try {
+                user = parse(line);
+            } catch (JsonProcessingException e) {
+                result.malformed(lineNumber);
+                continue;
+            }
+            if(user == null || !validator.validateUser(user)) {
+                result.invalid(lineNumber);
+                continue;
+            }
+            persistenceService.saveUser(user);
+            result.created();
+        }
+        return result;
+    }
+
+    private User parse(String userJson) throws IOException {
+        return streaming ? UserJson.parse(userJson) : UserJson.READER.readValue(userJson);
+    }
 }
\ No newline at end of file
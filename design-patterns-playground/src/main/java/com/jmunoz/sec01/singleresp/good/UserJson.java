@@ -0,0 +1,59 @@
+package com.jmunoz.sec01.singleresp.good;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+
+import java.io.IOException;
+
+//Jackson setup for User, built once and shared. Mapper and reader are thread-safe once configured.
+final class UserJson {
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final ObjectReader READER = MAPPER.readerFor(User.class);
+
+    private UserJson() {
+    }
+
+    //Streaming fast path, fills User straight from the tokens without data binding.
+    //Accepts the same documents as READER: scalars are taken as text, unknown fields are rejected.
+    static User parse(String json) throws IOException {
+        try(JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            return parse(parser);
+        }
+    }
+
+    static User parse(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        //empty input fails as in READER, a JSON null is a null User as in READER
+        if(token == null) {
+            throw MismatchedInputException.from(parser, User.class, "No content to map due to end-of-input");
+        }
+        if(token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if(token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a User object");
+        }
+        User user = new User();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if(value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected a text value for '" + field + "'");
+            }
+            String text = value == JsonToken.VALUE_NULL ? null : parser.getText();
+            switch(field) {
+                case "name" -> user.setName(text);
+                case "email" -> user.setEmail(text);
+                case "address" -> user.setAddress(text);
+                default -> throw new JsonParseException(parser, "Unrecognized field '" + field + "'");
+            }
+        }
+        return user;
+    }
+}
@@ -1,10 +1,48 @@
 package com.jmunoz.sec01.singleresp.good;
 
+import java.io.IOException;
+import java.util.Collection;
+
 public class UserPersistenceService {
 
     private Store store = new Store();
 
+    //durable storage written behind the caller, null keeps users in memory only
+    private final UserWriteBehindLog log;
+
+    public UserPersistenceService() {
+        this(null);
+    }
+
+    //Store stays the cache users are read from, the log only makes them durable
+    public UserPersistenceService(UserWriteBehindLog log) {
+        this.log = log;
+    }
+
     public void saveUser(User user) {
         store.store(user);
+        if(log != null) {
+            log.append(user);
+        }
+    }
+
+    public void saveUsers(Collection<User> users) {
+        store.storeAll(users);
+        if(log != null) {
+            for(User user : users) {
+                log.append(user);
+            }
+        }
+    }
+
+    public User getUser(String name) {
+        return store.getUser(name);
+    }
+
+    //Waits until every saved user is durable
+    public void flush() throws IOException {
+        if(log != null) {
+            log.flush();
+        }
     }
 }
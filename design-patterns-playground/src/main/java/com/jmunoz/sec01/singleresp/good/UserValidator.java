@@ -1,48 +1,108 @@
 package com.jmunoz.sec01.singleresp.good;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+//Rules are hand-written character scanners, validating a user allocates nothing
+//beyond the trimmed strings of values that do have surrounding whitespace.
 public class UserValidator {
 
     public boolean validateUser(User user) {
-        return isValidUser(user);
+        return validate(user).isValid();
     }
 
-    //Validates the user object
-    private boolean isValidUser(User user) {
+    //Validates the user object and tells which rule failed
+    public ValidationResult validate(User user) {
         if(!isPresent(user.getName())) {
-            return false;
+            return ValidationResult.MISSING_NAME;
         }
         user.setName(user.getName().trim());
 
         if(!isValidAlphaNumeric(user.getName())) {
-            return false;
+            return ValidationResult.INVALID_NAME;
         }
-        if(user.getEmail() == null || user.getEmail().trim().isEmpty()) {
-            return false;
+        if(!isPresent(user.getEmail())) {
+            return ValidationResult.MISSING_EMAIL;
         }
         user.setEmail(user.getEmail().trim());
         if(!isValidEmail(user.getEmail())) {
-            return false;
+            return ValidationResult.INVALID_EMAIL;
         }
-        return true;
+        return ValidationResult.VALID;
     }
 
     //Simply checks if value is null or empty..
+    //Same as !value.trim().isEmpty() without the copy: trim() strips every char <= ' ', control chars included
     private boolean isPresent(String value) {
-        return value != null && !value.trim().isEmpty();
+        if(value == null) {
+            return false;
+        }
+        for(int i = 0; i < value.length(); i++) {
+            if(value.charAt(i) > ' ') {
+                return true;
+            }
+        }
+        return false;
     }
+
     //check string for special characters
     private boolean isValidAlphaNumeric(String value) {
-        Pattern pattern = Pattern.compile("[^A-Za-z0-9]");
-        Matcher matcher = pattern.matcher(value);
-        return !matcher.find();
+        for(int i = 0; i < value.length(); i++) {
+            if(!isLetterOrDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
-    //check string for valid email address
+
+    //check string for valid email address, same rules as the former pattern
+    //^[_A-Za-z0-9-\+]+(\.[_A-Za-z0-9-]+)*@[A-Za-z0-9-]+(\.[A-Za-z0-9]+)*(\.[A-Za-z]{2,})$
     private boolean isValidEmail(String value) {
-        Pattern pattern = Pattern.compile("^[_A-Za-z0-9-\\+]+(\\.[_A-Za-z0-9-]+)*@[A-Za-z0-9-]+(\\.[A-Za-z0-9]+)*(\\.[A-Za-z]{2,})$");
-        Matcher matcher = pattern.matcher(value);
-        return matcher.find();
+        int at = value.indexOf('@');
+        return at > 0 && isValidLocalPart(value, at) && isValidDomain(value, at + 1);
+    }
+
+    //dot-separated non-empty segments of word characters and '-', '+' only in the first one
+    private boolean isValidLocalPart(String value, int end) {
+        int segmentStart = 0;
+        for(int i = 0; i < end; i++) {
+            char c = value.charAt(i);
+            if(c == '.') {
+                if(i == segmentStart) {
+                    return false;
+                }
+                segmentStart = i + 1;
+            } else if(!(isLetterOrDigit(c) || c == '_' || c == '-' || (c == '+' && segmentStart == 0))) {
+                return false;
+            }
+        }
+        return end > segmentStart;
+    }
+
+    //at least two labels: the first of letters, digits and '-', the middle ones of letters and digits,
+    //the last of two or more letters
+    private boolean isValidDomain(String value, int start) {
+        int labelStart = start;
+        boolean lastAllLetters = true;
+        for(int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '.') {
+                if(i == labelStart) {
+                    return false;
+                }
+                labelStart = i + 1;
+                lastAllLetters = true;
+            } else if(isLetterOrDigit(c) || (c == '-' && labelStart == start)) {
+                lastAllLetters &= isLetter(c);
+            } else {
+                return false;
+            }
+        }
+        return labelStart > start && value.length() - labelStart >= 2 && lastAllLetters;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9');
     }
 }
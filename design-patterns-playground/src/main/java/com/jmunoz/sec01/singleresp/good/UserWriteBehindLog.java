@@ -0,0 +1,229 @@
+package com.jmunoz.sec01.singleresp.good;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Durable storage for users, written behind the request thread.
+//Saves are serialized on the caller's thread, so later changes to the User don't reach the file, and go into
+//a bounded queue. A background thread appends them in batches to a file (one JSON document per line)
+//and syncs the file once per batch. A full queue blocks the caller, that's the backpressure.
+//If a write fails the log stays failed: waiting and later callers get the IOException.
+public class UserWriteBehindLog implements Closeable {
+
+    private static final ObjectWriter WRITER = UserJson.MAPPER.writerFor(User.class);
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int DEFAULT_BATCH_SIZE = 512;
+
+    private final BlockingQueue<Entry> pending;
+
+    private final int batchSize;
+
+    private final FileChannel channel;
+
+    private final Thread writer;
+
+    //held while a sequence number is taken and its entry queued, so the queue is in sequence order
+    private final ReentrantLock enqueueLock = new ReentrantLock();
+
+    //sequence of the last queued entry, only written under enqueueLock
+    private volatile long enqueued;
+
+    //guards synced, writers of the log wait on it in flush
+    private final Object progress = new Object();
+
+    //sequence of the last entry on disk
+    private long synced;
+
+    private volatile IOException failure;
+
+    private volatile boolean closed;
+
+    public UserWriteBehindLog(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    public UserWriteBehindLog(Path file, int capacity, int batchSize) throws IOException {
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.writer = new Thread(this::writeLoop, "user-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    //Serializes and queues the user, blocks while the queue is full
+    public void append(User user) {
+        byte[] json;
+        try {
+            json = WRITER.writeValueAsBytes(user);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Entry entry;
+        try {
+            enqueueLock.lockInterruptibly();
+            try {
+                checkUsable();
+                entry = new Entry(enqueued + 1, json);
+                pending.put(entry);
+                enqueued = entry.sequence;
+            } finally {
+                enqueueLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for space in the log", e);
+        }
+        //the log failed while we waited for space, entries after the failure are never written
+        IOException failed = failure;
+        if(failed != null) {
+            synchronized(progress) {
+                if(entry.sequence > synced) {
+                    throw new UncheckedIOException(failed);
+                }
+            }
+        }
+    }
+
+    //Waits until everything appended so far is on disk
+    public void flush() throws IOException {
+        try {
+            if(!awaitFlushed(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                throw new IOException("Log was not flushed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing the log", e);
+        }
+    }
+
+    //Waits until everything appended so far is on disk, false if the timeout elapsed first
+    public boolean awaitFlushed(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long target = enqueued;
+        synchronized(progress) {
+            while(synced < target) {
+                if(failure != null) {
+                    throw failure;
+                }
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+            }
+            return true;
+        }
+    }
+
+    //Users queued but not yet on disk
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        //under the enqueue lock, so nothing is queued after the flush below
+        enqueueLock.lock();
+        try {
+            if(closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            enqueueLock.unlock();
+        }
+        try {
+            flush();
+        } finally {
+            writer.interrupt();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    private void checkUsable() {
+        if(closed) {
+            throw new IllegalStateException("Log is closed");
+        }
+        IOException failed = failure;
+        if(failed != null) {
+            throw new UncheckedIOException(failed);
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        while(true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                if(closed && pending.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            pending.drainTo(batch, batchSize - 1);
+            //after a failure entries are only taken off the queue, so callers blocked on a full queue get to see it
+            if(failure == null) {
+                try {
+                    buffer.reset();
+                    for(Entry entry : batch) {
+                        buffer.write(entry.json);
+                        buffer.write('\n');
+                    }
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+                    while(bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    //group fsync, one per batch
+                    channel.force(false);
+                    synchronized(progress) {
+                        synced = batch.get(batch.size() - 1).sequence;
+                        progress.notifyAll();
+                    }
+                } catch (IOException e) {
+                    synchronized(progress) {
+                        failure = e;
+                        progress.notifyAll();
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    //A user as it was when appended
+    private static final class Entry {
+
+        private final long sequence;
+
+        private final byte[] json;
+
+        Entry(long sequence, byte[] json) {
+            this.sequence = sequence;
+            this.json = json;
+        }
+    }
+}
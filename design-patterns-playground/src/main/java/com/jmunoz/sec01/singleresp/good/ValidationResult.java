@@ -0,0 +1,20 @@
+package com.jmunoz.sec01.singleresp.good;
+
+//Why UserValidator accepted or rejected a user, the first failing rule wins
+public enum ValidationResult {
+
+    VALID,
+
+    MISSING_NAME,
+
+    //name has characters other than letters and digits
+    INVALID_NAME,
+
+    MISSING_EMAIL,
+
+    INVALID_EMAIL;
+
+    public boolean isValid() {
+        return this == VALID;
+    }
+}
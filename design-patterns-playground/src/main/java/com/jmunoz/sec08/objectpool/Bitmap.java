@@ -1,16 +1,41 @@
 package com.jmunoz.sec08.objectpool;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
 // Concrete reusable.
 // Hipotéticamente, lo que ocurre en esta clase es que, si alguien crea un objeto de esta clase,
 // vamos a coger el nombre, vamos al disco, leemos el fichero, asignamos un array de bytes nuevo y
 // almacenamos el contenido del fichero en ese fichero.
-public class Bitmap implements Image {
+// En vez de copiar el fichero a un byte[] en el heap, los pixels se mapean en memoria con FileChannel.map(),
+// fuera del heap: el GC no tiene que moverlos ni copiarlos y el sistema operativo los lee del disco solo cuando
+// se tocan. El mapeo se hace una vez por fichero y lo comparten todos los Bitmap del mismo fichero, así un Bitmap
+// que se reutiliza desde el pool, o uno nuevo del mismo fichero, no vuelve a leer del disco.
+// Cada mapeo cuenta cuántos Bitmap lo usan y, cuando el último llama a close(), se cierra su Arena y el fichero
+// se desmapea en ese momento, sin esperar al GC.
+public class Bitmap implements Image, AutoCloseable {
+
+    // Mapeos en uso por fichero, compartidos por todos los Bitmap. Se protege con su propio monitor.
+    private static final Map<Path, Mapping> MAPPED_FILES = new HashMap<>();
 
     private Point2D location;
 
     // Representa un nombre de fichero del disco.
     private final String name;
 
+    // Se mapea la primera vez que se piden los pixels y no se resetea, el fichero no cambia al reutilizar el Bitmap.
+    private Mapping mapping;
+
+    private ByteBuffer pixels;
+
     public Bitmap(String name) {
         this.name = name;
     }
@@ -30,11 +55,99 @@ public class Bitmap implements Image {
         this.location = location;
     }
 
+    // Contenido del fichero, de solo lectura y fuera del heap. Cada Bitmap tiene su propia posición y límite.
+    // Después de close() no se puede usar: si era el último Bitmap del fichero, leerlo lanza IllegalStateException.
+    public ByteBuffer getPixels() {
+        if (pixels == null) {
+            mapping = acquire(Path.of(name).toAbsolutePath().normalize());
+            pixels = mapping.segment.asByteBuffer();
+        }
+        return pixels;
+    }
+
+    // Suelta el mapeo del fichero. Lo llama el pool al descartar el Bitmap.
+    @Override
+    public void close() {
+        if (mapping != null) {
+            release(mapping);
+            mapping = null;
+            pixels = null;
+        }
+    }
+
+    // Mapear es I/O, así que se hace fuera del monitor. Si otro thread ha mapeado el mismo fichero a la vez,
+    // nos quedamos con el suyo y cerramos el nuestro.
+    private static Mapping acquire(Path file) {
+        synchronized (MAPPED_FILES) {
+            Mapping existing = MAPPED_FILES.get(file);
+            if (existing != null) {
+                existing.users++;
+                return existing;
+            }
+        }
+        Mapping mapped = map(file);
+        Mapping existing;
+        synchronized (MAPPED_FILES) {
+            existing = MAPPED_FILES.putIfAbsent(file, mapped);
+            if (existing == null) {
+                return mapped;
+            }
+            existing.users++;
+        }
+        mapped.arena.close();
+        return existing;
+    }
+
+    private static void release(Mapping mapping) {
+        synchronized (MAPPED_FILES) {
+            if (--mapping.users > 0) {
+                return;
+            }
+            MAPPED_FILES.remove(mapping.file, mapping);
+        }
+        mapping.arena.close();
+    }
+
+    // El mapeo sigue siendo válido aunque cerremos el canal, dura lo que dure su Arena.
+    private static Mapping map(Path file) {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            return new Mapping(file, arena, segment);
+        } catch (IOException e) {
+            arena.close();
+            throw new UncheckedIOException("No se puede mapear " + file, e);
+        }
+    }
+
     // Tenemos que resetear el valor location, que corresponde al state.
-    // El campo name no lo puede cambiar el cliente.
+    // El campo name no lo puede cambiar el cliente, y los pixels, que dependen de él, se mantienen.
+    // Solo se rebobinan por si el cliente los leyó moviendo la posición.
     @Override
     public void reset() {
         location = null;
+        if (pixels != null) {
+            pixels.clear();
+        }
         System.out.println("Bitmap is reset");
     }
+
+    // Un fichero mapeado y cuántos Bitmap lo usan.
+    private static final class Mapping {
+
+        private final Path file;
+
+        private final Arena arena;
+
+        private final MemorySegment segment;
+
+        // Protegido por el monitor de MAPPED_FILES.
+        private int users = 1;
+
+        Mapping(Path file, Arena arena, MemorySegment segment) {
+            this.file = file;
+            this.arena = arena;
+            this.segment = segment;
+        }
+    }
 }
@@ -2,19 +2,26 @@ package com.jmunoz.sec08.objectpool;
 
 public class Client {
 
-    public static final ObjectPool<Bitmap> bitmapPool = new ObjectPool<>(() -> new Bitmap("Logo.bmp"), 5);
+    // Un pool de Bitmap por nombre de fichero: como mucho 5 Bitmap por fichero y 50 entre todos.
+    // Los Bitmap que el pool descarta se cierran para desmapear su fichero.
+    public static final KeyedObjectPool<String, Bitmap> bitmapPool = new KeyedObjectPool<>(Bitmap::new, 5, 50, Bitmap::close);
 
     public static void main(String[] args) {
-        Bitmap b1 = bitmapPool.get();
+        Bitmap b1 = bitmapPool.get("Logo.bmp");
         b1.setLocation(new Point2D(10, 10));
 
-        Bitmap b2 = bitmapPool.get();
+        Bitmap b2 = bitmapPool.get("Logo.bmp");
         b2.setLocation(new Point2D(-10, 0));
 
+        Bitmap b3 = bitmapPool.get("Background.bmp");
+        b3.setLocation(new Point2D(0, 0));
+
         b1.draw();
         b2.draw();
+        b3.draw();
 
-        bitmapPool.release(b1);
-        bitmapPool.release(b2);
+        bitmapPool.release("Logo.bmp", b1);
+        bitmapPool.release("Logo.bmp", b2);
+        bitmapPool.release("Background.bmp", b3);
     }
 }
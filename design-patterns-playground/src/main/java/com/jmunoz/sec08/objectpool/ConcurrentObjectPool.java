@@ -0,0 +1,218 @@
+package com.jmunoz.sec08.objectpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Object pool para mucha concurrencia, con la misma idea que los allocators de memoria rápidos:
+//   - Cada thread tiene su "cargador" (magazine), una pequeña pila propia a la que accede sin sincronización.
+//   - Detrás hay una cola compartida sin locks (la cola MPMC acotada de Dmitry Vyukov) que no crea nodos al usarse.
+// Casi todos los get()/release() se resuelven en el cargador del thread, y solo cuando se vacía o se llena
+// se mueven medio cargador de golpe desde o hacia la cola compartida.
+// A diferencia de ObjectPool, get() nunca espera: si no hay objetos libres crea uno nuevo con el creator.
+// Y si al liberar la cola compartida está llena, el objeto se descarta avisando a onEvict.
+// Los objetos en el cargador de un thread que termina también se pierden, y esos sin avisar a onEvict, así que
+// con muchos threads de corta vida (por ejemplo virtual threads) es mejor ObjectPool.
+public class ConcurrentObjectPool<T extends Poolable> {
+
+    private static final int MAGAZINE_SIZE = 16;
+
+    private final Supplier<T> creator;
+
+    // Se llama con cada objeto que el pool descarta, por ejemplo Bitmap::close para desmapear su fichero.
+    private final Consumer<T> onEvict;
+
+    private final SharedQueue<T> shared;
+
+    private final ThreadLocal<Magazine> magazines = ThreadLocal.withInitial(Magazine::new);
+
+    private final LongAdder created = new LongAdder();
+
+    // count objetos creados de inicio. La cola compartida admite al menos capacity objetos.
+    public ConcurrentObjectPool(Supplier<T> creator, int count, int capacity) {
+        this(creator, count, capacity, obj -> {
+        });
+    }
+
+    // Como el anterior, pero avisando a onEvict de cada objeto que se descarta para que libere lo que tenga.
+    public ConcurrentObjectPool(Supplier<T> creator, int count, int capacity, Consumer<T> onEvict) {
+        if (count < 0 || capacity < 1 || count > capacity) {
+            throw new IllegalArgumentException("Se necesita 0 <= count <= capacity y capacity > 0");
+        }
+        this.creator = creator;
+        this.onEvict = onEvict;
+        this.shared = new SharedQueue<>(capacity);
+        for (int i = 0; i < count; i++) {
+            shared.offer(create());
+        }
+    }
+
+    public ConcurrentObjectPool(Supplier<T> creator, int count) {
+        this(creator, count, Math.max(count, 1024));
+    }
+
+    public T get() {
+        Magazine magazine = magazines.get();
+        if (magazine.size == 0) {
+            // Rellenamos medio cargador de la cola compartida, la próxima vez ya no hay que ir a ella.
+            while (magazine.size < MAGAZINE_SIZE / 2) {
+                T obj = shared.poll();
+                if (obj == null) {
+                    break;
+                }
+                magazine.push(obj);
+            }
+            if (magazine.size == 0) {
+                return create();
+            }
+        }
+        return magazine.pop();
+    }
+
+    // Si reset() falla el objeto no se reutiliza: se descarta y la excepción sigue su camino.
+    public void release(T obj) {
+        try {
+            obj.reset();
+        } catch (RuntimeException e) {
+            evict(obj);
+            throw e;
+        }
+        Magazine magazine = magazines.get();
+        if (magazine.size == MAGAZINE_SIZE) {
+            // Cargador lleno: pasamos la mitad a la cola compartida para que la usen otros threads.
+            while (magazine.size > MAGAZINE_SIZE / 2) {
+                T spilled = magazine.pop();
+                if (!shared.offer(spilled)) {
+                    // Cola compartida llena, el objeto sobra.
+                    evict(spilled);
+                    break;
+                }
+            }
+        }
+        magazine.push(obj);
+    }
+
+    // Objetos creados por el pool desde el principio, contando los de inicio.
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    private T create() {
+        created.increment();
+        return creator.get();
+    }
+
+    // Un onEvict que falla no debe impedir el release() que ha descartado el objeto.
+    private void evict(T obj) {
+        try {
+            onEvict.accept(obj);
+        } catch (RuntimeException e) {
+            System.err.println("Ha fallado onEvict: " + e);
+        }
+    }
+
+    // Pila de objetos libres de un único thread, por eso no necesita sincronización.
+    private final class Magazine {
+
+        private final Object[] objects = new Object[MAGAZINE_SIZE];
+
+        private int size;
+
+        void push(T obj) {
+            objects[size++] = obj;
+        }
+
+        @SuppressWarnings("unchecked")
+        T pop() {
+            T obj = (T) objects[--size];
+            objects[size] = null;
+            return obj;
+        }
+    }
+
+    // Cola acotada multi productor / multi consumidor de Dmitry Vyukov.
+    // Cada celda tiene un número de secuencia que dice si está libre para el productor de la vuelta actual
+    // o llena para su consumidor, así productores y consumidores solo compiten por un CAS en su posición.
+    // Entre el CAS y la actualización de la secuencia la celda está "a medias". Si el thread que la tiene se
+    // queda sin CPU justo ahí, los demás la ven llena o vacía sin estarlo la cola, así que antes de decir
+    // que está llena o vacía miramos las posiciones, y si solo es una celda a medias cedemos la CPU y reintentamos.
+    private static final class SharedQueue<T> {
+
+        private final AtomicReferenceArray<T> cells;
+
+        private final AtomicLongArray sequences;
+
+        private final int mask;
+
+        private final AtomicLong enqueuePosition = new AtomicLong();
+
+        private final AtomicLong dequeuePosition = new AtomicLong();
+
+        SharedQueue(int capacity) {
+            // La capacidad tiene que ser potencia de 2 para calcular la celda con una máscara.
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            cells = new AtomicReferenceArray<>(size);
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            mask = size - 1;
+        }
+
+        // false si la cola está llena
+        boolean offer(T obj) {
+            long position = enqueuePosition.get();
+            while (true) {
+                int cell = (int) position & mask;
+                long difference = sequences.get(cell) - position;
+                if (difference == 0) {
+                    if (enqueuePosition.compareAndSet(position, position + 1)) {
+                        cells.lazySet(cell, obj);
+                        sequences.set(cell, position + 1);
+                        return true;
+                    }
+                    position = enqueuePosition.get();
+                } else if (difference < 0) {
+                    if (position - dequeuePosition.get() > mask) {
+                        return false;
+                    }
+                    // Un consumidor aún está vaciando la celda.
+                    Thread.yield();
+                    position = enqueuePosition.get();
+                } else {
+                    position = enqueuePosition.get();
+                }
+            }
+        }
+
+        // null si la cola está vacía
+        T poll() {
+            long position = dequeuePosition.get();
+            while (true) {
+                int cell = (int) position & mask;
+                long difference = sequences.get(cell) - (position + 1);
+                if (difference == 0) {
+                    if (dequeuePosition.compareAndSet(position, position + 1)) {
+                        T obj = cells.get(cell);
+                        cells.lazySet(cell, null);
+                        sequences.set(cell, position + mask + 1);
+                        return obj;
+                    }
+                    position = dequeuePosition.get();
+                } else if (difference < 0) {
+                    if (enqueuePosition.get() == position) {
+                        return null;
+                    }
+                    // Un productor aún está llenando la celda.
+                    Thread.yield();
+                    position = dequeuePosition.get();
+                } else {
+                    position = dequeuePosition.get();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.jmunoz.sec08.objectpool;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Un object pool por clave, por ejemplo un pool de Bitmap por nombre de fichero.
+// Cada clave tiene como mucho maxPerKey objetos y entre todas las claves como mucho maxTotal.
+// Cuando se llega a maxTotal y una clave necesita un objeto nuevo, se descartan los objetos libres de la clave
+// usada hace más tiempo (LRU), y si no le queda ninguno prestado la clave desaparece del todo.
+// Así los objetos acaban en las claves que se usan de verdad y las frías no acaparan el pool.
+// Todo el estado se protege con un único lock, pero los objetos se crean, resetean y descartan fuera de él.
+public class KeyedObjectPool<K, T extends Poolable> {
+
+    private final Function<K, T> creator;
+
+    private final int maxPerKey;
+
+    private final int maxTotal;
+
+    // Se llama con cada objeto libre que se descarta, por ejemplo Bitmap::close para desmapear su fichero.
+    private final Consumer<T> onEvict;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Se avisa cada vez que se libera un objeto o un hueco, a todos los que esperan porque puede servir a
+    // cualquier clave: un objeto libre de otra clave se puede descartar para hacer sitio.
+    private final Condition available = lock.newCondition();
+
+    // En orden de acceso: la primera clave es la usada hace más tiempo.
+    private final LinkedHashMap<K, KeyPool<T>> pools = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Objetos que existen, prestados o libres, sumando todas las claves.
+    private int total;
+
+    // El creator recibe la clave, por ejemplo Bitmap::new para crear el Bitmap de un nombre de fichero.
+    public KeyedObjectPool(Function<K, T> creator, int maxPerKey, int maxTotal) {
+        this(creator, maxPerKey, maxTotal, obj -> {
+        });
+    }
+
+    // Como el anterior, pero avisando a onEvict de cada objeto que se descarta para que libere lo que tenga.
+    public KeyedObjectPool(Function<K, T> creator, int maxPerKey, int maxTotal, Consumer<T> onEvict) {
+        if (maxPerKey < 1 || maxTotal < maxPerKey) {
+            throw new IllegalArgumentException("Se necesita 0 < maxPerKey <= maxTotal");
+        }
+        this.creator = creator;
+        this.maxPerKey = maxPerKey;
+        this.maxTotal = maxTotal;
+        this.onEvict = onEvict;
+    }
+
+    // Espera lo que haga falta a que haya un objeto para la clave. Como ObjectPool.get(), devuelve null si
+    // interrumpen la espera, dejando el thread marcado como interrumpido.
+    public T get(K key) {
+        try {
+            return borrow(key, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("get() was interrupted");
+            return null;
+        }
+    }
+
+    // Como get(key), pero si en timeout no hay objeto lanza PoolExhaustedException.
+    public T get(K key, long timeout, TimeUnit unit) {
+        try {
+            T obj = borrow(key, Math.max(0, unit.toNanos(timeout)));
+            if (obj == null) {
+                throw new PoolExhaustedException("Ningún objeto libre para " + key + " después de " + timeout + " " + unit);
+            }
+            return obj;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PoolExhaustedException("Interrumpido mientras esperaba un objeto para " + key, e);
+        }
+    }
+
+    // Devuelve el objeto al pool de su clave. Primero comprobamos que la clave tiene algún objeto prestado, así no
+    // reseteamos un objeto que no es nuestro. Luego lo reseteamos fuera del lock y, si reset() falla, lo descartamos
+    // avisando a onEvict.
+    public void release(K key, T obj) {
+        KeyPool<T> pool;
+        lock.lock();
+        try {
+            pool = pools.get(key);
+            if (pool == null || pool.size - pool.idle.size() - pool.returning == 0) {
+                throw new IllegalStateException("El objeto no se prestó desde el pool de " + key);
+            }
+            pool.returning++;
+        } finally {
+            lock.unlock();
+        }
+        boolean reset = false;
+        try {
+            obj.reset();
+            reset = true;
+        } finally {
+            lock.lock();
+            try {
+                pool.returning--;
+                if (reset) {
+                    pool.idle.push(obj);
+                    available.signalAll();
+                } else {
+                    unreserve(key, pool);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!reset) {
+                evict(obj);
+            }
+        }
+    }
+
+    // Objetos que existen, prestados o libres, sumando todas las claves.
+    public int getSize() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Objetos que existen para la clave.
+    public int getSize(K key) {
+        lock.lock();
+        try {
+            // No usamos get() para no cambiar el orden LRU al consultar.
+            for (Map.Entry<K, KeyPool<T>> entry : pools.entrySet()) {
+                if (entry.getKey().equals(key)) {
+                    return entry.getValue().size;
+                }
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Claves con algún objeto.
+    public int getKeyCount() {
+        lock.lock();
+        try {
+            return pools.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // timeoutNanos < 0 espera indefinidamente. null si se acaba el tiempo.
+    private T borrow(K key, long timeoutNanos) throws InterruptedException {
+        long remaining = timeoutNanos;
+        KeyPool<T> pool = null;
+        lock.lock();
+        try {
+            while (true) {
+                pool = pools.computeIfAbsent(key, k -> new KeyPool<>());
+                if (!pool.idle.isEmpty()) {
+                    return pool.idle.pop();
+                }
+                Deque<T> evicted = null;
+                if (pool.size < maxPerKey && (total < maxTotal || (evicted = evictColdest(key)) != null)) {
+                    // Reservamos el hueco y creamos el objeto fuera del lock, crear un Bitmap puede ir al disco.
+                    pool.size++;
+                    total++;
+                    lock.unlock();
+                    boolean created = false;
+                    try {
+                        evict(evicted);
+                        T obj = creator.apply(key);
+                        created = true;
+                        return obj;
+                    } finally {
+                        lock.lock();
+                        if (!created) {
+                            unreserve(key, pool);
+                        }
+                    }
+                }
+                if (timeoutNanos < 0) {
+                    available.await();
+                } else if (remaining <= 0) {
+                    return null;
+                } else {
+                    remaining = available.awaitNanos(remaining);
+                }
+            }
+        } finally {
+            // Si la clave la creamos nosotros para esperar y nos vamos sin objeto, por timeout, interrupción o porque
+            // el creator ha fallado, no la dejamos vacía en el pool.
+            if (pool != null && pool.size == 0) {
+                pools.remove(key, pool);
+            }
+            lock.unlock();
+        }
+    }
+
+    // Descarta los objetos libres de la clave usada hace más tiempo que tenga alguno, sin contar la clave que pide.
+    // Devuelve los descartados para pasárselos a onEvict fuera del lock, o null si ninguna clave tiene objetos libres.
+    private Deque<T> evictColdest(K requester) {
+        Iterator<Map.Entry<K, KeyPool<T>>> iterator = pools.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, KeyPool<T>> entry = iterator.next();
+            KeyPool<T> cold = entry.getValue();
+            if (entry.getKey().equals(requester) || cold.idle.isEmpty()) {
+                continue;
+            }
+            Deque<T> evicted = new ArrayDeque<>(cold.idle);
+            cold.size -= evicted.size();
+            total -= evicted.size();
+            cold.idle.clear();
+            if (cold.size == 0) {
+                iterator.remove();
+            }
+            return evicted;
+        }
+        return null;
+    }
+
+    // Sin el lock, con lo que ha devuelto evictColdest().
+    private void evict(Deque<T> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (T obj : evicted) {
+            evict(obj);
+        }
+    }
+
+    // Sin el lock. Un onEvict que falla no debe cortar el préstamo o el release() que ha descartado el objeto.
+    private void evict(T obj) {
+        try {
+            onEvict.accept(obj);
+        } catch (RuntimeException e) {
+            System.err.println("Ha fallado onEvict: " + e);
+        }
+    }
+
+    // Con el lock cogido: el creator o reset() han fallado, liberamos el hueco del objeto.
+    private void unreserve(K key, KeyPool<T> pool) {
+        pool.size--;
+        total--;
+        if (pool.size == 0) {
+            pools.remove(key, pool);
+        }
+        available.signalAll();
+    }
+
+    // Objetos de una clave. Los libres se usan como pila, así se reutilizan primero los más recientes.
+    private static final class KeyPool<T> {
+
+        private final Deque<T> idle = new ArrayDeque<>();
+
+        // Prestados más libres.
+        private int size;
+
+        // Prestados que se están devolviendo: ya los ha aceptado release() pero aún se están reseteando.
+        private int returning;
+    }
+}
@@ -1,49 +1,510 @@
 package com.jmunoz.sec08.objectpool;
 
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
-public class ObjectPool<T extends Poolable> {
+public class ObjectPool<T extends Poolable> implements AutoCloseable {
+
+    // Un único thread daemon revisa los objetos ociosos de todos los pools. Solo guarda referencias débiles a
+    // ellos, así un pool que no se cierra no se queda vivo para siempre por estar programado.
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "object-pool-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Para avisar de fugas cuando no hay listener.
+    private static final PoolMetricsListener DEFAULT_LISTENER = new PoolMetricsListener() {
+    };
 
     // Proveemos una forma de cachear objetos en memoria.
     // BlockingQueue permite thread safety al añadir o eliminar objetos de esta cola.
-    private final BlockingDeque<T> availablePool;
+    // Es un deque porque lo usamos como pila: los objetos se devuelven y se cogen por delante, así los que más se
+    // usan están siempre delante y los ociosos se quedan al final, que es donde los busca el reaper.
+    private final BlockingDeque<Idle<T>> availablePool;
+
+    private final Supplier<T> creator;
+
+    // Se llama con cada objeto que el pool descarta, por ejemplo Bitmap::close para desmapear su fichero.
+    private final Consumer<T> onEvict;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long idleTimeoutNanos;
+
+    // Objetos que existen ahora mismo, prestados o en availablePool.
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Threads bloqueados en get() esperando un objeto.
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // null si no se mide nada, así sin listener el pool no hace ningún trabajo extra.
+    private final PoolMetricsListener listener;
+
+    private final long leakThresholdNanos;
+
+    // Préstamos en curso, solo si hay listener o detección de fugas. Por identidad, T puede redefinir equals().
+    private final Map<T, Borrow> borrows;
+
+    // Cada cuánto revisa el reaper este pool, 0 si no hace falta revisarlo.
+    private final long reaperPeriod;
+
+    // Se programa con el primer préstamo, antes no hay nada que revisar. Así el constructor no publica el pool
+    // a otro thread antes de terminar de construirlo.
+    private volatile ScheduledFuture<?> reaper;
+
+    // Protege reaper y closed al programar o cancelar la revisión.
+    private final Object reaperLock = new Object();
+
+    private boolean closed;
 
     // Aprovechamos el constructor para crear objetos en nuestro object pool, usando un Supplier que nos pase
     // el cliente para llamar al creator y obtener objetos Bitmap, y una variable count para indicar el número
     // de objetos a crear.
+    // Con este constructor el pool tiene siempre count objetos, ni crece ni se reduce. Con count <= 0 el pool
+    // empieza vacío y get() espera a que alguien devuelva un objeto con release().
     public ObjectPool(Supplier<T> creator, int count) {
+        this(getBuilder(creator).withMinSize(Math.max(0, count)).withMaxSize(Math.max(0, count)));
+    }
+
+    // Pool elástico: crea minSize objetos de inicio y, si hacen falta más, los va creando hasta maxSize.
+    // Si idleTimeout no es null, los objetos por encima de minSize que lleven ese tiempo sin usarse se descartan.
+    public ObjectPool(Supplier<T> creator, int minSize, int maxSize, Duration idleTimeout) {
+        this(getBuilder(creator).withMinSize(minSize).withMaxSize(maxSize).withIdleTimeout(idleTimeout));
+    }
+
+    private ObjectPool(ObjectPoolBuilder<T> builder) {
+        if (builder.minSize < 0 || builder.minSize > builder.maxSize) {
+            throw new IllegalArgumentException("Se necesita 0 <= minSize <= maxSize");
+        }
+        // Con cero o un valor negativo el reaper se programaría cada nanosegundo.
+        if (builder.idleTimeout != null && (builder.idleTimeout.isZero() || builder.idleTimeout.isNegative())) {
+            throw new IllegalArgumentException("idleTimeout tiene que ser positivo: " + builder.idleTimeout);
+        }
+        if (builder.leakThreshold != null && (builder.leakThreshold.isZero() || builder.leakThreshold.isNegative())) {
+            throw new IllegalArgumentException("leakThreshold tiene que ser positivo: " + builder.leakThreshold);
+        }
         this.availablePool = new LinkedBlockingDeque<>();
-        for (int i = 0; i < count; i++) {
-            availablePool.offer(creator.get());
+        this.creator = builder.creator;
+        this.onEvict = builder.onEvict;
+        this.minSize = builder.minSize;
+        this.maxSize = builder.maxSize;
+        this.listener = builder.listener;
+        this.idleTimeoutNanos = builder.idleTimeout != null && minSize < maxSize ? builder.idleTimeout.toNanos() : Long.MAX_VALUE;
+        this.leakThresholdNanos = builder.leakThreshold != null ? builder.leakThreshold.toNanos() : Long.MAX_VALUE;
+        this.borrows = listener != null || leakThresholdNanos != Long.MAX_VALUE ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+        for (int i = 0; i < minSize; i++) {
+            size.incrementAndGet();
+            availablePool.offer(new Idle<>(create()));
         }
+        // Revisamos dos veces por intervalo, así ningún objeto pasa más de 1,5 veces idleTimeout ocioso
+        // ni más de 1,5 veces el umbral de fuga sin avisar.
+        if (idleTimeoutNanos != Long.MAX_VALUE || leakThresholdNanos != Long.MAX_VALUE) {
+            this.reaperPeriod = Math.max(1, Math.min(idleTimeoutNanos, leakThresholdNanos) / 2);
+        } else {
+            this.reaperPeriod = 0;
+        }
+    }
+
+    // Get builder instance
+    public static <T extends Poolable> ObjectPoolBuilder<T> getBuilder(Supplier<T> creator) {
+        return new ObjectPoolBuilder<>(creator);
     }
 
     // Proveemos una forma de obtener objetos de este object pool.
     public T get() {
+        long start = listener != null ? System.nanoTime() : 0;
+        // Si no hay objetos libres pero aún no hemos llegado a maxSize, creamos uno nuevo.
+        T obj = tryGet();
+        if (obj != null) {
+            return borrowed(obj, start);
+        }
         // Se bloquea si el object pool está vacío e intentamos coger un objeto.
         // Y, si está bloqueado y alguien interrumpe el bloqueo, lanza la excepción InterruptedException.
         // Si el object pool está vacío podemos:
         //   - Crear objetos nuevos, añadirlos al pool y devolverlo.
         //   - Si el objeto representa un recurso externo limitado, como una conexión a BBDD o un socket, podemos esperar.
         // En este ejemplo vamos a esperar hasta que un objeto quede disponible.
+        waiting.incrementAndGet();
         try {
-            return availablePool.take();
+            // Volvemos a mirar ya apuntados como esperando: si entretanto se ha descartado un objeto, su hueco es
+            // nuestro. Si no, quien lo descarte nos ve esperando y crea el objeto por nosotros.
+            obj = tryGet();
+            return borrowed(obj != null ? obj : availablePool.takeFirst().obj, start);
         } catch (InterruptedException e) {
+            // Dejamos marcado el thread como interrumpido para que quien nos llamó se entere.
+            Thread.currentThread().interrupt();
             System.err.println("take() was interrupted");
+        } finally {
+            waiting.decrementAndGet();
         }
 
         return null;
     }
 
+    // Como get(), pero si en timeout no queda ningún objeto libre falla con PoolExhaustedException en vez de esperar
+    // indefinidamente. También falla si interrumpen la espera.
+    public T get(long timeout, TimeUnit unit) {
+        long start = listener != null ? System.nanoTime() : 0;
+        T obj = tryGet();
+        if (obj != null) {
+            return borrowed(obj, start);
+        }
+        waiting.incrementAndGet();
+        try {
+            obj = tryGet();
+            if (obj != null) {
+                return borrowed(obj, start);
+            }
+            Idle<T> idle = availablePool.pollFirst(timeout, unit);
+            if (idle == null) {
+                if (listener != null) {
+                    listener.timedOut(System.nanoTime() - start);
+                }
+                throw new PoolExhaustedException("Ningún objeto libre después de " + timeout + " " + unit + ", los " + maxSize + " están prestados");
+            }
+            return borrowed(idle.obj, start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PoolExhaustedException("Interrumpido mientras esperaba un objeto", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
     // Proveemos una forma de liberar el objeto, reseteándolo y devolviéndolo al object pool (a availablePool)
+    // Si reset() falla el objeto no se reutiliza: se descarta, avisando a onEvict, y la excepción sigue su camino.
     public void release(T obj) {
-        obj.reset();
+        if (borrows != null) {
+            Borrow borrow = borrows.remove(obj);
+            if (borrow != null && listener != null) {
+                listener.released(System.nanoTime() - borrow.since);
+            }
+        }
+        try {
+            obj.reset();
+        } catch (RuntimeException e) {
+            discard(obj);
+            throw e;
+        }
         try {
-            availablePool.put(obj);
+            availablePool.putFirst(new Idle<>(obj));
         } catch (InterruptedException e) {
             System.err.println("put() was interrupted");
+            discard(obj);
+        }
+    }
+
+    // Objetos que existen ahora mismo, prestados o libres.
+    public int getSize() {
+        return size.get();
+    }
+
+    // Objetos libres en el pool.
+    public int getIdleCount() {
+        return availablePool.size();
+    }
+
+    // Objetos prestados ahora mismo. Aproximado si hay gets y releases a la vez.
+    public int getActiveCount() {
+        return Math.max(0, size.get() - availablePool.size());
+    }
+
+    // Threads esperando a que se libere un objeto.
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    // Para el reaper. Los objetos prestados se pueden seguir devolviendo.
+    // Hay que llamarlo al dejar de usar un pool con idleTimeout o detección de fugas. Si no, el reaper lo sigue
+    // revisando hasta que el GC lo recoge.
+    @Override
+    public void close() {
+        synchronized (reaperLock) {
+            closed = true;
+            if (reaper != null) {
+                reaper.cancel(false);
+            }
+        }
+    }
+
+    // Un objeto libre, o uno nuevo si no hay libres y aún cabe. null si hay que esperar.
+    private T tryGet() {
+        Idle<T> idle = availablePool.pollFirst();
+        if (idle != null) {
+            return idle.obj;
+        }
+        return tryCreate();
+    }
+
+    // Un objeto nuevo si aún cabe, null si ya hay maxSize.
+    private T tryCreate() {
+        // Reservamos el hueco antes de crear el objeto, así nunca pasamos de maxSize aunque haya varios threads.
+        int current = size.get();
+        while (current < maxSize) {
+            if (size.compareAndSet(current, current + 1)) {
+                try {
+                    return create();
+                } catch (RuntimeException e) {
+                    size.decrementAndGet();
+                    throw e;
+                }
+            }
+            current = size.get();
+        }
+        return null;
+    }
+
+    private T create() {
+        T obj = creator.get();
+        if (listener != null) {
+            listener.created();
+        }
+        return obj;
+    }
+
+    // Saca del pool un objeto que no vuelve a availablePool y deja libre su hueco.
+    // Los threads que esperan en availablePool no se enterarían del hueco, así que si hay alguno creamos el objeto
+    // que lo ocupa y se lo dejamos.
+    private void discard(T obj) {
+        size.decrementAndGet();
+        evict(obj);
+        if (waiting.get() > 0) {
+            try {
+                T replacement = tryCreate();
+                if (replacement != null) {
+                    availablePool.offerFirst(new Idle<>(replacement));
+                }
+            } catch (RuntimeException e) {
+                System.err.println("No se ha podido reponer el objeto descartado: " + e);
+            }
+        }
+    }
+
+    // Un onEvict que falla no debe cortar la revisión ni el release() que ha descartado el objeto.
+    private void evict(T obj) {
+        if (listener != null) {
+            listener.evicted();
+        }
+        try {
+            onEvict.accept(obj);
+        } catch (RuntimeException e) {
+            System.err.println("Ha fallado onEvict: " + e);
+        }
+    }
+
+    // Apunta el préstamo si hay que medirlo o vigilar fugas. La traza solo se guarda con la detección de fugas,
+    // porque capturarla es caro.
+    private T borrowed(T obj, long start) {
+        if (reaperPeriod != 0 && reaper == null) {
+            startReaper();
+        }
+        if (listener != null) {
+            listener.borrowed(System.nanoTime() - start);
+        }
+        if (borrows != null) {
+            borrows.put(obj, new Borrow(leakThresholdNanos != Long.MAX_VALUE ? new Throwable("Prestado aquí") : null));
+        }
+        return obj;
+    }
+
+    private void startReaper() {
+        synchronized (reaperLock) {
+            if (reaper == null && !closed) {
+                Maintenance task = new Maintenance(this);
+                reaper = REAPER.scheduleAtFixedRate(task, reaperPeriod, reaperPeriod, TimeUnit.NANOSECONDS);
+                task.future = reaper;
+            }
+        }
+    }
+
+    // Lo ejecuta periódicamente el thread del reaper.
+    // Si algo falla, por ejemplo el listener, lo contamos y seguimos: una excepción que saliera de aquí cancelaría
+    // la tarea sin avisar y el pool dejaría de revisarse.
+    private void maintain() {
+        try {
+            if (idleTimeoutNanos != Long.MAX_VALUE) {
+                evictIdle();
+            }
+            if (leakThresholdNanos != Long.MAX_VALUE) {
+                detectLeaks();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ha fallado la revisión del object pool: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    // Lo ejecuta el reaper: descarta los objetos del final del deque que llevan más de idleTimeout sin usarse,
+    // mientras sobren objetos por encima de minSize.
+    private void evictIdle() {
+        long now = System.nanoTime();
+        while (true) {
+            int current = size.get();
+            if (current <= minSize) {
+                return;
+            }
+            Idle<T> oldest = availablePool.peekLast();
+            if (oldest == null || now - oldest.since < idleTimeoutNanos) {
+                return;
+            }
+            if (!size.compareAndSet(current, current - 1)) {
+                continue;
+            }
+            // Alguien se lo ha podido llevar entre peekLast() y aquí, en ese caso devolvemos el hueco.
+            if (!availablePool.removeLastOccurrence(oldest)) {
+                size.incrementAndGet();
+            } else {
+                evict(oldest.obj);
+            }
+        }
+    }
+
+    // Avisa de los objetos prestados hace más de leakThreshold, una vez por préstamo.
+    // Con el lock de borrows solo apuntamos los préstamos a avisar: el listener, que puede imprimir trazas o ser
+    // lento, se llama ya sin él, así get() y release() no se quedan esperando al aviso.
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        List<Map.Entry<T, Borrow>> overdue = new ArrayList<>();
+        synchronized (borrows) {
+            for (Map.Entry<T, Borrow> entry : borrows.entrySet()) {
+                Borrow borrow = entry.getValue();
+                if (!borrow.reported && now - borrow.since >= leakThresholdNanos) {
+                    borrow.reported = true;
+                    overdue.add(Map.entry(entry.getKey(), borrow));
+                }
+            }
+        }
+        PoolMetricsListener target = listener != null ? listener : DEFAULT_LISTENER;
+        for (Map.Entry<T, Borrow> entry : overdue) {
+            Borrow borrow = entry.getValue();
+            target.leakSuspected(entry.getKey(), now - borrow.since, borrow.borrowedAt);
+        }
+    }
+
+    // La tarea del reaper. Cuando el GC recoge el pool se cancela sola.
+    private static final class Maintenance implements Runnable {
+
+        private final WeakReference<ObjectPool<?>> pool;
+
+        private volatile ScheduledFuture<?> future;
+
+        Maintenance(ObjectPool<?> pool) {
+            this.pool = new WeakReference<>(pool);
+        }
+
+        @Override
+        public void run() {
+            ObjectPool<?> target = pool.get();
+            if (target != null) {
+                target.maintain();
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    // Objeto libre y desde cuándo lo está.
+    private static final class Idle<T> {
+
+        private final T obj;
+
+        private final long since = System.nanoTime();
+
+        Idle(T obj) {
+            this.obj = obj;
+        }
+    }
+
+    // Objeto prestado: desde cuándo y, con la detección de fugas, quién lo cogió.
+    private static final class Borrow {
+
+        private final long since = System.nanoTime();
+
+        private final Throwable borrowedAt;
+
+        // Solo lo usa el reaper.
+        private boolean reported;
+
+        Borrow(Throwable borrowedAt) {
+            this.borrowedAt = borrowedAt;
+        }
+    }
+
+    // Builder
+    public static class ObjectPoolBuilder<T extends Poolable> {
+
+        private final Supplier<T> creator;
+
+        private int minSize;
+
+        private int maxSize = 8;
+
+        private Duration idleTimeout;
+
+        private PoolMetricsListener listener;
+
+        private Duration leakThreshold;
+
+        private Consumer<T> onEvict = obj -> {
+        };
+
+        private ObjectPoolBuilder(Supplier<T> creator) {
+            this.creator = creator;
+        }
+
+        public ObjectPoolBuilder<T> withMinSize(int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public ObjectPoolBuilder<T> withMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public ObjectPoolBuilder<T> withIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public ObjectPoolBuilder<T> withMetricsListener(PoolMetricsListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        // Avisa al listener (o por System.err si no hay) de los objetos que llevan más de leakThreshold prestados,
+        // con la traza de quien los cogió. Capturar la traza en cada get() es caro, mejor solo para depurar.
+        public ObjectPoolBuilder<T> withLeakDetection(Duration leakThreshold) {
+            this.leakThreshold = leakThreshold;
+            return this;
+        }
+
+        // Avisa de cada objeto que el pool descarta, por idleTimeout o porque reset() ha fallado, para que libere
+        // lo que tenga.
+        public ObjectPoolBuilder<T> withOnEvict(Consumer<T> onEvict) {
+            this.onEvict = onEvict;
+            return this;
+        }
+
+        public ObjectPool<T> build() {
+            return new ObjectPool<>(this);
         }
     }
 }
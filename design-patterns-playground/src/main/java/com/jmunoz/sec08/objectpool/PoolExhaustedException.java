@@ -0,0 +1,13 @@
+package com.jmunoz.sec08.objectpool;
+
+// La lanza ObjectPool.get(timeout) cuando no queda ningún objeto libre a tiempo.
+public class PoolExhaustedException extends RuntimeException {
+
+    public PoolExhaustedException(String message) {
+        super(message);
+    }
+
+    public PoolExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,34 @@
+package com.jmunoz.sec08.objectpool;
+
+// Recibe los eventos de un ObjectPool para medirlo: esperas, tiempo prestado, objetos creados y descartados...
+// Los métodos se llaman desde el thread que hace la operación, así que tienen que ser rápidos y thread safe.
+// Todos tienen una implementación vacía, cada listener sobrescribe solo los que le interesan.
+public interface PoolMetricsListener {
+
+    // Se ha prestado un objeto después de esperar waitNanos (0 o casi si había uno libre).
+    default void borrowed(long waitNanos) {
+    }
+
+    // Se ha devuelto un objeto que estuvo prestado heldNanos.
+    default void released(long heldNanos) {
+    }
+
+    // El pool ha creado un objeto nuevo con el creator.
+    default void created() {
+    }
+
+    // El pool ha descartado un objeto, porque llevaba idleTimeout ocioso o porque reset() ha fallado.
+    default void evicted() {
+    }
+
+    // get(timeout, unit) no consiguió objeto tras esperar waitNanos.
+    default void timedOut(long waitNanos) {
+    }
+
+    // Con la detección de fugas activa, el objeto lleva heldNanos prestado sin devolverse.
+    // borrowedAt tiene la traza de quien lo cogió. Se avisa una sola vez por préstamo.
+    default void leakSuspected(Object obj, long heldNanos, Throwable borrowedAt) {
+        System.err.println("Posible fuga: " + obj + " prestado hace " + heldNanos / 1_000_000 + " ms y sin devolver");
+        borrowedAt.printStackTrace();
+    }
+}
@@ -0,0 +1,145 @@
+package com.jmunoz.sec08.objectpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// PoolMetricsListener que acumula contadores e histogramas de espera y de tiempo prestado.
+// Los contadores son LongAdder, así muchos threads pueden sumar a la vez sin pelearse por la misma variable.
+// Las fugas se siguen mostrando por System.err además de contarse.
+public class PoolStats implements PoolMetricsListener {
+
+    private final LongAdder borrowed = new LongAdder();
+
+    private final LongAdder released = new LongAdder();
+
+    private final LongAdder created = new LongAdder();
+
+    private final LongAdder evicted = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    private final LongAdder leaks = new LongAdder();
+
+    private final Histogram waitTimes = new Histogram();
+
+    private final Histogram heldTimes = new Histogram();
+
+    @Override
+    public void borrowed(long waitNanos) {
+        borrowed.increment();
+        waitTimes.record(waitNanos);
+    }
+
+    @Override
+    public void released(long heldNanos) {
+        released.increment();
+        heldTimes.record(heldNanos);
+    }
+
+    @Override
+    public void created() {
+        created.increment();
+    }
+
+    @Override
+    public void evicted() {
+        evicted.increment();
+    }
+
+    @Override
+    public void timedOut(long waitNanos) {
+        timedOut.increment();
+        waitTimes.record(waitNanos);
+    }
+
+    @Override
+    public void leakSuspected(Object obj, long heldNanos, Throwable borrowedAt) {
+        leaks.increment();
+        PoolMetricsListener.super.leakSuspected(obj, heldNanos, borrowedAt);
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.sum();
+    }
+
+    public long getReleasedCount() {
+        return released.sum();
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    // Esperas de get(), también las que acabaron en timeout.
+    public Histogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    // Tiempo que estuvo prestado cada objeto devuelto.
+    public Histogram getHeldTimes() {
+        return heldTimes;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{borrowed=" + getBorrowedCount() + ", released=" + getReleasedCount()
+                + ", created=" + getCreatedCount() + ", evicted=" + getEvictedCount()
+                + ", timedOut=" + getTimedOutCount() + ", leaks=" + getLeakCount()
+                + ", waitP50=" + waitTimes.getPercentile(50) + "ns, waitP99=" + waitTimes.getPercentile(99)
+                + "ns, heldP50=" + heldTimes.getPercentile(50) + "ns, heldP99=" + heldTimes.getPercentile(99) + "ns}";
+    }
+
+    // Histograma de nanosegundos en cubetas de potencias de 2: la cubeta i cuenta los valores en [2^(i-1), 2^i),
+    // y la 0 los que son 0. Registrar un valor es un incremento atómico, sin locks ni memoria nueva.
+    // A cambio los percentiles son aproximados: se devuelve el límite superior de la cubeta, como mucho el doble del real.
+    public static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        // Valor por debajo del cual queda el percentile % de los registros, redondeado a la potencia de 2 superior.
+        public long getPercentile(double percentile) {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return i == 0 ? 0 : i == 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}